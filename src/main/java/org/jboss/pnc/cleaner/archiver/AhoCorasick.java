@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton finding all occurrences of a set of literals in a single pass over the input.
+ * <p>
+ * The automaton runs on UTF-8 bytes: literals are encoded once when the automaton is built and text is encoded on the
+ * fly while it is scanned, so a literal is found exactly when {@link String#contains(CharSequence)} would find it.
+ * Bytes that don't occur in any literal share one input class, which keeps the transition table small.
+ */
+final class AhoCorasick {
+
+    /**
+     * Byte used in place of a lone surrogate. It is not valid UTF-8, so it never occurs in an encoded literal.
+     */
+    private static final int UNPAIRED_SURROGATE = 0xFF;
+
+    private final int literalCount;
+
+    private final int[] byteClasses = new int[256];
+
+    private final int classCount;
+
+    /** Full DFA transition table, indexed by {@code state * classCount + byteClass}. */
+    private final int[] transitions;
+
+    /** Literals recognized in each state, including the ones inherited over suffix links; {@code null} if none. */
+    private final int[][] outputs;
+
+    AhoCorasick(List<String> literals) {
+        literalCount = literals.size();
+        byte[][] encoded = new byte[literalCount][];
+        int maxStates = 1;
+        for (int i = 0; i < literalCount; i++) {
+            encoded[i] = encode(literals.get(i));
+            maxStates += encoded[i].length;
+        }
+
+        int classes = 1;
+        for (byte[] literal : encoded) {
+            for (byte b : literal) {
+                if (byteClasses[b & 0xFF] == 0) {
+                    byteClasses[b & 0xFF] = classes++;
+                }
+            }
+        }
+        classCount = classes;
+
+        // build the trie, -1 marks a missing edge
+        int[] trie = new int[maxStates * classCount];
+        Arrays.fill(trie, -1);
+        int[][] ownOutputs = new int[maxStates][];
+        int states = 1;
+        for (int i = 0; i < literalCount; i++) {
+            int state = 0;
+            for (byte b : encoded[i]) {
+                int edge = state * classCount + byteClasses[b & 0xFF];
+                if (trie[edge] < 0) {
+                    trie[edge] = states++;
+                }
+                state = trie[edge];
+            }
+            ownOutputs[state] = append(ownOutputs[state], i);
+        }
+
+        // breadth-first walk resolving the missing edges through the suffix links
+        transitions = new int[states * classCount];
+        outputs = new int[states][];
+        int[] suffixLinks = new int[states];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        outputs[0] = ownOutputs[0];
+        for (int c = 0; c < classCount; c++) {
+            int child = trie[c];
+            if (child > 0) {
+                suffixLinks[child] = 0;
+                queue.add(child);
+            } else {
+                child = 0;
+            }
+            transitions[c] = child;
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] = merge(ownOutputs[state], outputs[suffixLinks[state]]);
+            for (int c = 0; c < classCount; c++) {
+                int child = trie[state * classCount + c];
+                if (child > 0) {
+                    suffixLinks[child] = transitions[suffixLinks[state] * classCount + c];
+                    queue.add(child);
+                } else {
+                    child = transitions[suffixLinks[state] * classCount + c];
+                }
+                transitions[state * classCount + c] = child;
+            }
+        }
+    }
+
+    int getLiteralCount() {
+        return literalCount;
+    }
+
+    /**
+     * Scans the text and marks every literal occurring in it.
+     *
+     * @param text scanned text
+     * @param found flags indexed by the literal position, set to {@code true} for each literal found
+     * @return number of literals found in the text that were not marked before
+     */
+    int scan(CharSequence text, boolean[] found) {
+        int newlyFound = report(0, found);
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                state = step(state, c);
+            } else if (c < 0x800) {
+                state = step(state, 0xC0 | (c >> 6));
+                state = step(state, 0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    state = step(state, 0xF0 | (codePoint >> 18));
+                    state = step(state, 0x80 | ((codePoint >> 12) & 0x3F));
+                    state = step(state, 0x80 | ((codePoint >> 6) & 0x3F));
+                    state = step(state, 0x80 | (codePoint & 0x3F));
+                } else {
+                    state = step(state, UNPAIRED_SURROGATE);
+                }
+            } else {
+                state = step(state, 0xE0 | (c >> 12));
+                state = step(state, 0x80 | ((c >> 6) & 0x3F));
+                state = step(state, 0x80 | (c & 0x3F));
+            }
+            if (outputs[state] != null) {
+                newlyFound += report(state, found);
+            }
+        }
+        return newlyFound;
+    }
+
+    /**
+     * Scans UTF-8 encoded text and marks every literal occurring in it. For well-formed input the result is the same as
+     * scanning the decoded text with {@link #scan(CharSequence, boolean[])}.
+     *
+     * @param bytes buffer with the encoded text
+     * @param offset index of the first byte of the text
+     * @param length number of bytes of the text
+     * @param found flags indexed by the literal position, set to {@code true} for each literal found
+     * @return number of literals found in the text that were not marked before
+     */
+    int scan(byte[] bytes, int offset, int length, boolean[] found) {
+        int newlyFound = report(0, found);
+        int state = 0;
+        for (int i = offset; i < offset + length; i++) {
+            state = transitions[state * classCount + byteClasses[bytes[i] & 0xFF]];
+            if (outputs[state] != null) {
+                newlyFound += report(state, found);
+            }
+        }
+        return newlyFound;
+    }
+
+    private int step(int state, int b) {
+        return transitions[state * classCount + byteClasses[b]];
+    }
+
+    private int report(int state, boolean[] found) {
+        int[] literals = outputs[state];
+        if (literals == null) {
+            return 0;
+        }
+        int newlyFound = 0;
+        for (int literal : literals) {
+            if (!found[literal]) {
+                found[literal] = true;
+                newlyFound++;
+            }
+        }
+        return newlyFound;
+    }
+
+    /**
+     * Encodes the text the same way {@link #scan(CharSequence, boolean[])} does.
+     */
+    private static byte[] encode(String text) {
+        byte[] bytes = new byte[text.length() * 3];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    bytes[length++] = (byte) UNPAIRED_SURROGATE;
+                }
+            } else {
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static int[] append(int[] values, int value) {
+        if (values == null) {
+            return new int[] { value };
+        }
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] merge(int[] own, int[] inherited) {
+        if (own == null) {
+            return inherited;
+        }
+        if (inherited == null) {
+            return own;
+        }
+        int[] result = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, result, own.length, inherited.length);
+        return result;
+    }
+}
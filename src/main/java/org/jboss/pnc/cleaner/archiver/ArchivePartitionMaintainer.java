@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Creates the monthly partitions of {@code _archived_buildrecords} ahead of the builds submitted in them. Builds
+ * submitted in a month without a partition end up in the default partition, which is not pruned by time ranges.
+ * <p>
+ * A partition can't be created while the default one has builds of its month. Moving them would lock the archived
+ * builds until the end of the move, so the month is left to the default partition and reported as an error, counted
+ * by {@code <className>.error.count}, for the builds to be moved at a quiet time. Creating the partitions months ahead
+ * keeps the default partition empty.
+ */
+@ApplicationScoped
+public class ArchivePartitionMaintainer {
+    private final Logger logger = LoggerFactory.getLogger(ArchivePartitionMaintainer.class);
+    private static final String className = ArchivePartitionMaintainer.class.getName();
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    private static final String DEFAULT_PARTITION = "_archived_buildrecords_default";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    ArchivePartitionMaintainer self;
+
+    @ConfigProperty(name = "buildArchiver.partitions.monthsAhead", defaultValue = "3")
+    int monthsAhead;
+
+    void onStart(@Observes StartupEvent event) {
+        createPartitions();
+    }
+
+    @Scheduled(cron = "{buildArchiver.partitions.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void createPartitions() {
+        YearMonth month = YearMonth.now(ZoneOffset.UTC);
+        try {
+            for (int i = 0; i <= monthsAhead; i++) {
+                self.ensurePartition(month.plusMonths(i));
+            }
+            logger.debug("Archived build partitions exist up to {}", month.plusMonths(monthsAhead));
+        } catch (RuntimeException ex) {
+            registry.counter(className + ".error.count").increment();
+            logger.error("Failed to create partitions of archived builds", ex);
+        }
+    }
+
+    /**
+     * Creates the partition of the month unless it exists or the default partition has builds of the month.
+     */
+    @Transactional
+    public void ensurePartition(YearMonth month) {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            boolean inDefault;
+            try (ResultSet result = statement.executeQuery(selectDefaultRows(month))) {
+                inDefault = result.next();
+            }
+            if (inDefault) {
+                registry.counter(className + ".error.count").increment();
+                logger.error(
+                        "The default partition has archived builds of {}, the partition of the month is not created",
+                        month);
+                return;
+            }
+            statement.execute(createPartition(month));
+        } catch (SQLException ex) {
+            throw new RuntimeException("Failed to create the partition of archived builds of " + month, ex);
+        }
+    }
+
+    static String createPartition(YearMonth month) {
+        return "CREATE TABLE IF NOT EXISTS " + partition(month) + " PARTITION OF _archived_buildrecords "
+                + range(month);
+    }
+
+    static String selectDefaultRows(YearMonth month) {
+        return "SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE " + condition(month) + " LIMIT 1";
+    }
+
+    private static String partition(YearMonth month) {
+        return "_archived_buildrecords_" + month.format(SUFFIX);
+    }
+
+    private static String range(YearMonth month) {
+        return "FOR VALUES FROM ('" + start(month) + "') TO ('" + start(month.plusMonths(1)) + "')";
+    }
+
+    private static String condition(YearMonth month) {
+        return "submittime >= '" + start(month) + "' AND submittime < '" + start(month.plusMonths(1)) + "'";
+    }
+
+    private static String start(YearMonth month) {
+        return month.atDay(1) + " 00:00:00+00";
+    }
+}
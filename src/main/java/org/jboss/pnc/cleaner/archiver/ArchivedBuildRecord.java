@@ -21,15 +21,13 @@ import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 import org.hibernate.annotations.Type;
 import org.jboss.pnc.enums.BuildStatus;
 
-import jakarta.persistence.Basic;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
-import jakarta.persistence.FetchType;
 import jakarta.persistence.Id;
-import jakarta.persistence.Lob;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import java.time.Instant;
 
 @Table(name = "_archived_buildrecords")
@@ -39,6 +37,11 @@ public class ArchivedBuildRecord extends PanacheEntityBase {
         PNC, PSI, INDY, ND
     }
 
+    /**
+     * The primary key of the table is the build together with the submit time, a unique key of a partitioned table has
+     * to include the partition key. The build alone identifies a record, {@link ArchivedBuildRecordWriter} deletes the
+     * stored record of a build archived again, so there is one record per build whatever its submit time.
+     */
     @Id
     @Column(name = "buildrecord_id")
     Long buildRecordId;
@@ -138,17 +141,41 @@ public class ArchivedBuildRecord extends PanacheEntityBase {
     @Column(name = "buildcontentid", length = 50)
     String buildcontentID;
 
-    @Column(name = "trimmed_buildlog")
-    @Lob
-    @Basic(fetch = FetchType.LAZY)
-    String trimmedBuildLog;
-
-    @Column(name = "trimmed_repourlog")
-    @Lob
-    @Basic(fetch = FetchType.LAZY)
-    String trimmedAlignLog;
-
     @Column(name = "lastupdatetime")
     Instant lastUpdate;
 
+    /** Hash of the {@link ArchivedLog} with the trimmed build log. */
+    @Column(name = "trimmed_buildlog_hash", length = 64)
+    String trimmedBuildLogHash;
+
+    /** Hash of the {@link ArchivedLog} with the trimmed alignment log. */
+    @Column(name = "trimmed_repourlog_hash", length = 64)
+    String trimmedAlignLogHash;
+
+    /** Lines around the first matches of the error patterns in the logs, see {@link MatchContext}. */
+    @Column(name = "match_context", columnDefinition = "text")
+    String matchContext;
+
+    /** Trimmed build log, stored as {@link ArchivedLog} by {@link ArchivedBuildRecordWriter}. */
+    @Transient
+    TrimmedLogBuffer trimmedBuildLogBuffer;
+
+    /** Trimmed alignment log, stored as {@link ArchivedLog} by {@link ArchivedBuildRecordWriter}. */
+    @Transient
+    TrimmedLogBuffer trimmedAlignLogBuffer;
+
+    /**
+     * Loads the trimmed build log.
+     */
+    public String getTrimmedBuildLog() {
+        return ArchivedLog.findContent(trimmedBuildLogHash);
+    }
+
+    /**
+     * Loads the trimmed alignment log.
+     */
+    public String getTrimmedAlignLog() {
+        return ArchivedLog.findContent(trimmedAlignLogHash);
+    }
+
 }
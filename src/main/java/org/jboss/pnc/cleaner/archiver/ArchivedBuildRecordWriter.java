@@ -0,0 +1,401 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.engine.jdbc.proxy.ClobProxy;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import jakarta.transaction.Transactional;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Stores archived build records by batched inserts, replacing the stored records of the builds, so a batch of records
+ * takes one transaction and a few round trips.
+ * <p>
+ * The records are not upserted by {@code INSERT ... ON CONFLICT DO UPDATE}. The primary key of the partitioned table
+ * includes the submit time, so a build archived again with another submit time would not conflict and would get a
+ * second row, and an update can't tell the rollup and the log references what the replaced record was. Instead the
+ * stored records of the builds are deleted, returning the values the rollup and the references need, and the records
+ * are inserted again.
+ * <p>
+ * The trimmed logs are stored as {@link ArchivedLog} by their hash, a log already stored is not written again. The
+ * logs count the records referring to them, in hash order so concurrent writers lock them in the same order, and a
+ * log no record refers to any more is deleted together with its large object. The counters
+ * {@code <className>.log.count} and {@code <className>.log.stored.count} count the referenced and the written logs
+ * once the transaction is committed, the gauge {@code <className>.log.dedup.ratio} is the share of the referenced logs
+ * that didn't have to be written.
+ * <p>
+ * With {@code buildArchiver.compressLogs} the trimmed logs are stored gzip compressed in the {@code bytea} column
+ * instead of a large object. The sizes of the stored logs are recorded by the summaries {@code <className>.log.size}
+ * (characters) and {@code <className>.log.compressed.size} (bytes), the compression by the timer
+ * {@code <className>.compress}.
+ * <p>
+ * The numbers in {@code _archived_build_rollup} are changed by {@link ArchivedBuildRollupDeltas} in the same
+ * transaction.
+ */
+@ApplicationScoped
+public class ArchivedBuildRecordWriter {
+
+    private static final String className = ArchivedBuildRecordWriter.class.getName();
+
+    private static final String[] COLUMNS = { "buildrecord_id", "submittime", "starttime", "endtime", "submit_year",
+            "submit_month", "submit_quarter", "status", "buildtype", "executionrootname", "executionrootversion",
+            "user_id", "username", "temporarybuild", "autoalign", "categorized_error_msg", "categorized_error_group",
+            "brewpullactive", "buildconfiguration_id", "buildconfiguration_rev", "buildconfiguration_name",
+            "buildenvironment_id", "project_id", "project_name", "buildconfigsetrecord_id", "product_id",
+            "product_name", "productversion_id", "product_version", "productmilestone_id", "productmilestone_version",
+            "buildcontentid", "lastupdatetime", "trimmed_buildlog_hash", "trimmed_repourlog_hash",
+            "match_context" };
+
+    /**
+     * The deleted records are subtracted from the rollup and release their logs, a build archived concurrently by
+     * another transaction fails the insert on the primary key instead of being counted twice.
+     */
+    static final String DELETE = "DELETE FROM _archived_buildrecords WHERE buildrecord_id = ANY (?) RETURNING "
+            + ArchivedBuildRollupDeltas.COLUMNS + ", trimmed_buildlog_hash, trimmed_repourlog_hash";
+
+    static final String INSERT = "INSERT INTO _archived_buildrecords (" + String.join(", ", COLUMNS) + ") VALUES ("
+            + Arrays.stream(COLUMNS).map(column -> "?").collect(Collectors.joining(", ")) + ")";
+
+    static final String UPDATE_LOG_REFS = "UPDATE _archived_logs SET refs = refs + ? WHERE hash = ?";
+
+    /**
+     * Serializes the writers storing the same new log, so the later one refers to the stored log instead of failing
+     * on the primary key with the large object already written.
+     */
+    static final String LOCK_LOG = "SELECT pg_advisory_xact_lock(hashtextextended(?, 0))";
+
+    static final String INSERT_LOG = "INSERT INTO _archived_logs (hash, content, content_gz, refs) VALUES (?, ?, ?, ?)";
+
+    static final String DELETE_UNREFERENCED_LOGS = "WITH deleted AS (DELETE FROM _archived_logs"
+            + " WHERE hash = ANY (?) AND refs <= 0 RETURNING content)"
+            + " SELECT lo_unlink(content) FROM deleted WHERE content IS NOT NULL";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @ConfigProperty(name = "buildArchiver.compressLogs", defaultValue = "false")
+    boolean compressLogs;
+
+    private Counter logCount;
+
+    private Counter storedLogCount;
+
+    @PostConstruct
+    void init() {
+        logCount = registry.counter(className + ".log.count");
+        storedLogCount = registry.counter(className + ".log.stored.count");
+        registry.gauge(
+                className + ".log.dedup.ratio",
+                this,
+                writer -> writer.logCount.count() == 0 ? 0
+                        : 1 - writer.storedLogCount.count() / writer.logCount.count());
+    }
+
+    /**
+     * Inserts the records or replaces the stored ones, together with the logs not stored yet, in a single transaction.
+     */
+    @Transactional
+    public void upsert(List<ArchivedBuildRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        Map<String, TrimmedLogBuffer> logs = new HashMap<>();
+        Map<String, Long> refs = new TreeMap<>();
+        for (ArchivedBuildRecord record : records) {
+            record.trimmedBuildLogHash = hash(record.trimmedBuildLogBuffer, logs, refs);
+            record.trimmedAlignLogHash = hash(record.trimmedAlignLogBuffer, logs, refs);
+        }
+        long referenced = refs.values().stream().mapToLong(Long::longValue).sum();
+        try (Connection connection = dataSource.getConnection()) {
+            ArchivedBuildRollupDeltas rollup = new ArchivedBuildRollupDeltas();
+            try (PreparedStatement delete = connection.prepareStatement(DELETE)) {
+                delete.setArray(
+                        1,
+                        connection.createArrayOf(
+                                "bigint",
+                                records.stream().map(record -> record.buildRecordId).toArray()));
+                try (ResultSet deleted = delete.executeQuery()) {
+                    while (deleted.next()) {
+                        rollup.subtract(deleted);
+                        release(deleted.getString("trimmed_buildlog_hash"), refs);
+                        release(deleted.getString("trimmed_repourlog_hash"), refs);
+                    }
+                }
+            }
+            int stored = storeLogs(connection, logs, refs);
+            try (PreparedStatement statement = connection.prepareStatement(INSERT)) {
+                for (ArchivedBuildRecord record : records) {
+                    bind(statement, record);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            records.forEach(rollup::add);
+            rollup.apply(connection);
+            afterCommit(() -> {
+                logCount.increment(referenced);
+                storedLogCount.increment(stored);
+            });
+        } catch (SQLException ex) {
+            throw new RuntimeException("Failed to store " + records.size() + " archived build records", ex);
+        }
+    }
+
+    private static String hash(TrimmedLogBuffer log, Map<String, TrimmedLogBuffer> logs, Map<String, Long> refs) {
+        if (log == null) {
+            return null;
+        }
+        String hash = LogDigest.sha256(log.reader());
+        logs.putIfAbsent(hash, log);
+        refs.merge(hash, 1L, Long::sum);
+        return hash;
+    }
+
+    private static void release(String hash, Map<String, Long> refs) {
+        if (hash != null) {
+            refs.merge(hash, -1L, Long::sum);
+        }
+    }
+
+    /**
+     * Changes the references of the logs, stores the logs not stored yet, so that their content is transferred and
+     * compressed only once, and deletes the logs no longer referenced.
+     *
+     * @return number of the stored logs
+     */
+    private int storeLogs(Connection connection, Map<String, TrimmedLogBuffer> logs, Map<String, Long> refs)
+            throws SQLException {
+        List<String> changed = refs.entrySet()
+                .stream()
+                .filter(ref -> ref.getValue() != 0)
+                .map(Map.Entry::getKey)
+                .toList();
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        List<String> missing = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(UPDATE_LOG_REFS)) {
+            for (String hash : changed) {
+                update.setLong(1, refs.get(hash));
+                update.setString(2, hash);
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0 && refs.get(changed.get(i)) > 0) {
+                    missing.add(changed.get(i));
+                }
+            }
+        }
+        List<String> newLogs = new ArrayList<>();
+        try (PreparedStatement lock = connection.prepareStatement(LOCK_LOG);
+                PreparedStatement update = connection.prepareStatement(UPDATE_LOG_REFS)) {
+            for (String hash : missing) {
+                lock.setString(1, hash);
+                lock.executeQuery().close();
+                update.setLong(1, refs.get(hash));
+                update.setString(2, hash);
+                if (update.executeUpdate() == 0) {
+                    newLogs.add(hash);
+                }
+            }
+        }
+        if (!newLogs.isEmpty()) {
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_LOG)) {
+                for (String hash : newLogs) {
+                    TrimmedLogBuffer log = logs.get(hash);
+                    insert.setString(1, hash);
+                    if (compressLogs) {
+                        setClob(insert, 2, null);
+                        setBytes(insert, 3, compress(log));
+                    } else {
+                        setClob(insert, 2, log);
+                        setBytes(insert, 3, null);
+                    }
+                    insert.setLong(4, refs.get(hash));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+        Object[] released = changed.stream().filter(hash -> refs.get(hash) < 0).toArray();
+        if (released.length > 0) {
+            try (PreparedStatement delete = connection.prepareStatement(DELETE_UNREFERENCED_LOGS)) {
+                delete.setArray(1, connection.createArrayOf("varchar", released));
+                delete.executeQuery().close();
+            }
+        }
+        return newLogs.size();
+    }
+
+    private void afterCommit(Runnable action) {
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    private static void bind(PreparedStatement statement, ArchivedBuildRecord record) throws SQLException {
+        int i = 1;
+        setLong(statement, i++, record.buildRecordId);
+        setInstant(statement, i++, record.submitTime);
+        setInstant(statement, i++, record.startTime);
+        setInstant(statement, i++, record.endTime);
+        setInteger(statement, i++, record.submitYear);
+        setInteger(statement, i++, record.submitMonth);
+        setInteger(statement, i++, record.submitQuarter);
+        setString(statement, i++, record.status == null ? null : record.status.name());
+        setString(statement, i++, record.buildType);
+        setString(statement, i++, record.executionRootName);
+        setString(statement, i++, record.executionRootVersion);
+        setLong(statement, i++, record.userId);
+        setString(statement, i++, record.username);
+        setBoolean(statement, i++, record.temporaryBuild);
+        setBoolean(statement, i++, record.autoAlign);
+        setString(statement, i++, record.categorizedErrorMessage);
+        setString(
+                statement,
+                i++,
+                record.categorizedErrorGroup == null ? null : record.categorizedErrorGroup.name());
+        setBoolean(statement, i++, record.brewPullActive);
+        setLong(statement, i++, record.buildConfigID);
+        setInteger(statement, i++, record.buildConfigRev);
+        setString(statement, i++, record.buildConfigName);
+        setLong(statement, i++, record.buildEnvironmentID);
+        setLong(statement, i++, record.projectID);
+        setString(statement, i++, record.projectName);
+        setLong(statement, i++, record.groupBuildID);
+        setLong(statement, i++, record.productID);
+        setString(statement, i++, record.productName);
+        setLong(statement, i++, record.productVersionID);
+        setString(statement, i++, record.productVersion);
+        setLong(statement, i++, record.productMilestoneID);
+        setString(statement, i++, record.productMilestoneVersion);
+        setString(statement, i++, record.buildcontentID);
+        setInstant(statement, i++, record.lastUpdate);
+        setString(statement, i++, record.trimmedBuildLogHash);
+        setString(statement, i++, record.trimmedAlignLogHash);
+        setString(statement, i, record.matchContext);
+    }
+
+    private byte[] compress(TrimmedLogBuffer log) {
+        byte[] compressed = registry.timer(className + ".compress")
+                .record(() -> LogCompression.compress(log.reader()));
+        registry.summary(className + ".log.size").record(log.length());
+        registry.summary(className + ".log.compressed.size").record(compressed.length);
+        return compressed;
+    }
+
+    private static void setLong(PreparedStatement statement, int index, Long value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BIGINT);
+        } else {
+            statement.setLong(index, value);
+        }
+    }
+
+    private static void setInteger(PreparedStatement statement, int index, Integer value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+
+    private static void setBoolean(PreparedStatement statement, int index, Boolean value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BOOLEAN);
+        } else {
+            statement.setBoolean(index, value);
+        }
+    }
+
+    private static void setString(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    private static void setBytes(PreparedStatement statement, int index, byte[] value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BINARY);
+        } else {
+            statement.setBytes(index, value);
+        }
+    }
+
+    private static void setInstant(PreparedStatement statement, int index, Instant value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.TIMESTAMP_WITH_TIMEZONE);
+        } else {
+            statement.setObject(index, OffsetDateTime.ofInstant(value, ZoneOffset.UTC));
+        }
+    }
+
+    /**
+     * The logs are mapped as {@link jakarta.persistence.Lob}, so they are written as large objects like Hibernate
+     * does. The log is streamed from the buffer, so it is never copied into a string.
+     */
+    private static void setClob(PreparedStatement statement, int index, TrimmedLogBuffer log) throws SQLException {
+        if (log == null) {
+            statement.setNull(index, Types.CLOB);
+        } else {
+            statement.setClob(index, ClobProxy.generateProxy(log.reader(), log.length()));
+        }
+    }
+}
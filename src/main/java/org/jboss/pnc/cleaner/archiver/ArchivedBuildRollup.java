@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.time.LocalDate;
+
+/**
+ * Number of archived builds submitted in a period with the same status, error category and build type.
+ *
+ * @param period first day of the period
+ * @param averageDurationMillis average duration of the builds with known start and end time, {@code null} if none
+ */
+public record ArchivedBuildRollup(
+        LocalDate period,
+        String status,
+        String errorGroup,
+        String errorMessage,
+        String buildType,
+        long builds,
+        Long averageDurationMillis) {
+}
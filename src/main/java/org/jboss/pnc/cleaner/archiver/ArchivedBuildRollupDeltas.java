@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Changes of {@code _archived_build_rollup} made by writing archived builds in a transaction. The changes are summed
+ * per rollup row and applied at the end of the transaction by one statement in the order of the rows. So a writer
+ * locks each row once and only until the commit, and all writers lock the rows in the same order, which keeps them
+ * from deadlocking on the rows that count the builds both before and after a change.
+ * <p>
+ * Missing values are counted as empty strings, like in the rollup table.
+ */
+final class ArchivedBuildRollupDeltas {
+
+    /** The columns of an archived build read by {@link #subtract(ResultSet)}, in this order. */
+    static final String COLUMNS = "submittime, starttime, endtime, status, categorized_error_group,"
+            + " categorized_error_msg, buildtype";
+
+    /** Rows changed by one statement, far below the limit of bind parameters. */
+    static final int MAX_ROWS = 1000;
+
+    private static final Comparator<Key> ORDER = Comparator.comparing(Key::day)
+            .thenComparing(Key::status)
+            .thenComparing(Key::errorGroup)
+            .thenComparing(Key::errorMessage)
+            .thenComparing(Key::buildType);
+
+    private final Map<Key, Delta> deltas = new TreeMap<>(ORDER);
+
+    /**
+     * Counts a written archived build.
+     */
+    void add(ArchivedBuildRecord record) {
+        change(
+                record.submitTime,
+                record.startTime,
+                record.endTime,
+                record.status == null ? null : record.status.name(),
+                record.categorizedErrorGroup == null ? null : record.categorizedErrorGroup.name(),
+                record.categorizedErrorMessage,
+                record.buildType,
+                1);
+    }
+
+    /**
+     * Stops counting a deleted or replaced archived build, read as the {@link #COLUMNS}.
+     */
+    void subtract(ResultSet row) throws SQLException {
+        change(
+                instant(row.getObject(1, OffsetDateTime.class)),
+                instant(row.getObject(2, OffsetDateTime.class)),
+                instant(row.getObject(3, OffsetDateTime.class)),
+                row.getString(4),
+                row.getString(5),
+                row.getString(6),
+                row.getString(7),
+                -1);
+    }
+
+    /**
+     * @param sign 1 to count the build, -1 to stop counting it
+     */
+    void change(
+            Instant submitTime,
+            Instant startTime,
+            Instant endTime,
+            String status,
+            String errorGroup,
+            String errorMessage,
+            String buildType,
+            int sign) {
+        Key key = new Key(
+                LocalDate.ofInstant(submitTime, ZoneOffset.UTC),
+                status == null ? "" : status,
+                errorGroup == null ? "" : errorGroup,
+                errorMessage == null ? "" : errorMessage,
+                buildType == null ? "" : buildType);
+        Delta delta = deltas.computeIfAbsent(key, k -> new Delta());
+        delta.builds += sign;
+        if (startTime != null && endTime != null) {
+            delta.timedBuilds += sign;
+            delta.durationMillis += sign * Duration.between(startTime, endTime).toMillis();
+        }
+    }
+
+    /**
+     * Rollup rows whose numbers change, in the order they are updated.
+     */
+    List<Map.Entry<Key, Delta>> changed() {
+        List<Map.Entry<Key, Delta>> changed = new ArrayList<>();
+        for (Map.Entry<Key, Delta> delta : deltas.entrySet()) {
+            if (!delta.getValue().isZero()) {
+                changed.add(delta);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Adds the changes to the rollup rows, the changes are cleared.
+     */
+    void apply(Connection connection) throws SQLException {
+        List<Map.Entry<Key, Delta>> changed = changed();
+        for (int from = 0; from < changed.size(); from += MAX_ROWS) {
+            List<Map.Entry<Key, Delta>> rows = changed.subList(from, Math.min(changed.size(), from + MAX_ROWS));
+            try (PreparedStatement statement = connection.prepareStatement(upsert(rows.size()))) {
+                int i = 1;
+                for (Map.Entry<Key, Delta> row : rows) {
+                    statement.setDate(i++, Date.valueOf(row.getKey().day()));
+                    statement.setString(i++, row.getKey().status());
+                    statement.setString(i++, row.getKey().errorGroup());
+                    statement.setString(i++, row.getKey().errorMessage());
+                    statement.setString(i++, row.getKey().buildType());
+                    statement.setLong(i++, row.getValue().builds);
+                    statement.setLong(i++, row.getValue().timedBuilds);
+                    statement.setLong(i++, row.getValue().durationMillis);
+                }
+                statement.executeUpdate();
+            }
+        }
+        deltas.clear();
+    }
+
+    /**
+     * The rows of the values are locked in their order.
+     */
+    static String upsert(int rows) {
+        return "INSERT INTO _archived_build_rollup AS rollup VALUES "
+                + String.join(", ", Collections.nCopies(rows, "(?, ?, ?, ?, ?, ?, ?, ?)"))
+                + " ON CONFLICT (day, status, categorized_error_group, categorized_error_msg, buildtype) DO UPDATE"
+                + " SET builds = rollup.builds + EXCLUDED.builds,"
+                + " timed_builds = rollup.timed_builds + EXCLUDED.timed_builds,"
+                + " duration_millis = rollup.duration_millis + EXCLUDED.duration_millis";
+    }
+
+    private static Instant instant(OffsetDateTime time) {
+        return time == null ? null : time.toInstant();
+    }
+
+    record Key(LocalDate day, String status, String errorGroup, String errorMessage, String buildType) {
+    }
+
+    static final class Delta {
+        long builds;
+        long timedBuilds;
+        long durationMillis;
+
+        boolean isZero() {
+            return builds == 0 && timedBuilds == 0 && durationMillis == 0;
+        }
+    }
+}
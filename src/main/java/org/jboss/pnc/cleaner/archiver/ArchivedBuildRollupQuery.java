@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the numbers of archived builds from {@code _archived_build_rollup}, which is kept up to date by the writers of
+ * {@code _archived_buildrecords} through {@link ArchivedBuildRollupDeltas}, so that the reports don't read the
+ * archived builds themselves.
+ */
+@ApplicationScoped
+public class ArchivedBuildRollupQuery {
+
+    private static final String className = ArchivedBuildRollupQuery.class.getName();
+
+    public enum Granularity {
+        DAY, MONTH, YEAR
+    }
+
+    /** Empty strings stand for missing values in the rollup. */
+    static final String SELECT = "SELECT date_trunc(?, day::timestamp)::date, NULLIF(status, ''),"
+            + " NULLIF(categorized_error_group, ''), NULLIF(categorized_error_msg, ''), NULLIF(buildtype, ''),"
+            + " sum(builds), sum(timed_builds), sum(duration_millis)"
+            + " FROM _archived_build_rollup WHERE day >= ? AND day < ?"
+            + " AND (CAST(? AS varchar) IS NULL OR status = ?)"
+            + " AND (CAST(? AS varchar) IS NULL OR categorized_error_group = ?)"
+            + " AND (CAST(? AS varchar) IS NULL OR buildtype = ?)"
+            + " GROUP BY 1, 2, 3, 4, 5 HAVING sum(builds) > 0 ORDER BY 1, 2, 3, 4, 5";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MeterRegistry registry;
+
+    /**
+     * @param from first submit day (UTC) included
+     * @param to first submit day (UTC) not included
+     * @param status status of the builds, all if {@code null}
+     * @param errorGroup error group of the builds, all if {@code null}
+     * @param buildType build type of the builds, all if {@code null}
+     */
+    public List<ArchivedBuildRollup> query(
+            LocalDate from,
+            LocalDate to,
+            Granularity granularity,
+            String status,
+            String errorGroup,
+            String buildType) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT)) {
+            int i = 1;
+            statement.setString(i++, granularity.name().toLowerCase());
+            statement.setDate(i++, Date.valueOf(from));
+            statement.setDate(i++, Date.valueOf(to));
+            for (String filter : new String[] { status, errorGroup, buildType }) {
+                statement.setString(i++, filter);
+                statement.setString(i++, filter);
+            }
+            List<ArchivedBuildRollup> rollups = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    long timedBuilds = rows.getLong(7);
+                    rollups.add(
+                            new ArchivedBuildRollup(
+                                    rows.getDate(1).toLocalDate(),
+                                    rows.getString(2),
+                                    rows.getString(3),
+                                    rows.getString(4),
+                                    rows.getString(5),
+                                    rows.getLong(6),
+                                    timedBuilds == 0 ? null : rows.getLong(8) / timedBuilds));
+                }
+            }
+            return rollups;
+        } catch (SQLException ex) {
+            registry.counter(className + ".error.count").increment();
+            throw new RuntimeException("Failed to read archived build rollups from " + from + " to " + to, ex);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+/**
+ * Trimmed log of archived builds, stored once for any number of builds and addressed by the SHA-256 hash of its UTF-8
+ * content. Retries of a failing build and builds failing on the same outage often have identical logs. The logs are
+ * kept apart from {@link ArchivedBuildRecord}, so reading and updating the records never touches them.
+ */
+@Table(name = "_archived_logs")
+@Entity
+public class ArchivedLog extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "hash", length = 64)
+    String hash;
+
+    @Column(name = "content")
+    @Lob
+    String content;
+
+    /** Content when stored compressed, see {@link #getContent()}. */
+    @Column(name = "content_gz")
+    @Convert(converter = CompressedLogConverter.class)
+    String compressedContent;
+
+    /**
+     * Returns the log, whether it is stored compressed or not.
+     */
+    public String getContent() {
+        return compressedContent != null ? compressedContent : content;
+    }
+
+    /**
+     * Loads the log with the given hash.
+     *
+     * @return the log or {@code null} if there is no hash or no such log
+     */
+    static String findContent(String hash) {
+        if (hash == null) {
+            return null;
+        }
+        ArchivedLog log = findById(hash);
+        return log == null ? null : log.getContent();
+    }
+}
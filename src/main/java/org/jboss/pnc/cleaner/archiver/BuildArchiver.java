@@ -18,20 +18,22 @@
 package org.jboss.pnc.cleaner.archiver;
 
 import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.scheduler.Scheduled;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
+import org.jboss.pnc.cleaner.orchApi.OrchClientConfiguration;
 import org.jboss.pnc.cleaner.orchApi.OrchClientProducer;
+import org.jboss.pnc.cleaner.orchApi.PageSizeTuner;
+import org.jboss.pnc.cleaner.orchApi.PrefetchingPageIterator;
 import org.jboss.pnc.client.BuildClient;
-import org.jboss.pnc.client.ProductMilestoneClient;
-import org.jboss.pnc.client.ProductVersionClient;
 import org.jboss.pnc.client.RemoteCollection;
 import org.jboss.pnc.client.RemoteResourceException;
 import org.jboss.pnc.common.pnc.LongBase32IdConverter;
 import org.jboss.pnc.constants.Attributes;
 import org.jboss.pnc.dto.Build;
 import org.jboss.pnc.dto.DTOEntity;
-import org.jboss.pnc.dto.ProductMilestone;
 import org.jboss.pnc.dto.ProductMilestoneRef;
 import org.jboss.pnc.dto.ProductRef;
 import org.jboss.pnc.dto.ProductVersion;
@@ -40,18 +42,29 @@ import org.jboss.pnc.rest.api.parameters.BuildsFilterParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 import jakarta.ws.rs.core.Response;
-import java.io.BufferedReader;
-import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.time.temporal.IsoFields;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.INDY;
 import static org.jboss.pnc.cleaner.archiver.BuildCategorizer.*;
@@ -62,73 +75,218 @@ import static org.jboss.pnc.cleaner.archiver.BuildCategorizer.*;
 @ApplicationScoped
 public class BuildArchiver {
     private final Logger logger = LoggerFactory.getLogger(BuildArchiver.class);
+    private static final String className = BuildArchiver.class.getName();
     public static final String BUILD_ARCHIVED = "BUILD_ARCHIVED";
     @Inject
     @RestClient
     FinalLogClient finalLogs;
     @Inject
-    BuildClient buildClient;
+    ProductVersionResolver productVersionResolver;
     @Inject
-    ProductMilestoneClient productMilestoneClient;
+    ArchivedBuildRecordWriter recordWriter;
     @Inject
-    ProductVersionClient productVersionClient;
-    @Inject
-    BuildArchiver self;
+    FinalLogCache logCache;
     @ConfigProperty(name = "buildArchiver.trimmedLogMaxSize", defaultValue = "1000000")
     Integer trimmedLogMaxSize;
 
     @Inject
     OrchClientProducer orchClientProducer;
 
+    @Inject
+    OrchClientConfiguration orchClientConfiguration;
+
+    @Inject
+    ManagedExecutor executor;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "buildArchiver.matchContextLines", defaultValue = "3")
+    int matchContextLines;
+    @ConfigProperty(name = "buildArchiver.logSpool.enabled", defaultValue = "false")
+    boolean logSpoolEnabled;
+    @ConfigProperty(name = "buildArchiver.logSpool.memoryThreshold", defaultValue = "16777216")
+    long logSpoolMemoryThreshold;
+    @ConfigProperty(name = "buildArchiver.logSpool.directory", defaultValue = "${java.io.tmpdir}")
+    String logSpoolDirectory;
+    @ConfigProperty(name = "buildArchiver.logSpool.chunkSize", defaultValue = "0")
+    long logSpoolChunkSize;
+    @ConfigProperty(name = "buildArchiver.logSpool.parallelism", defaultValue = "4")
+    int logSpoolParallelism;
+
+    @ConfigProperty(name = "buildArchiver.pipeline.logReaders", defaultValue = "4")
+    int pipelineLogReaders;
+    @ConfigProperty(name = "buildArchiver.pipeline.writers", defaultValue = "2")
+    int pipelineWriters;
+    @ConfigProperty(name = "buildArchiver.pipeline.batchSize", defaultValue = "50")
+    int pipelineBatchSize;
+    @ConfigProperty(name = "buildArchiver.pipeline.markers", defaultValue = "2")
+    int pipelineMarkers;
+    @ConfigProperty(name = "buildArchiver.pipeline.queueSize", defaultValue = "16")
+    int pipelineQueueSize;
+
+    private PageSizeTuner pageSizeTuner;
+
+    /** Pool scanning the chunks of spooled logs, {@code null} if they are scanned at once. */
+    private ForkJoinPool chunkScanPool;
+
+    @PostConstruct
+    void init() {
+        pageSizeTuner = orchClientConfiguration.createPageSizeTuner();
+        if (logSpoolChunkSize > 0) {
+            chunkScanPool = new ForkJoinPool(logSpoolParallelism);
+        }
+    }
+
+    @PreDestroy
+    void destroy() {
+        if (chunkScanPool != null) {
+            chunkScanPool.shutdown();
+        }
+    }
+
     @Timed
     @Scheduled(cron = "{buildArchiverScheduler.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
     public void archiveBuilds() {
         logger.info("Archiving Builds ...");
-        Collection<Build> unverifiedBuilds = getUnarchivedBuilds().getAll();
-        logger.info("Found {} unverified builds.", unverifiedBuilds.size());
-        unverifiedBuilds.forEach(b -> {
-            try {
-                archiveBuild(b);
-            } catch (Exception ex) {
-                logger.error("Failed to archive build " + b.getId(), ex);
+        Iterator<Build> unverifiedBuilds = unarchivedBuilds();
+        createPipeline().run(() -> new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return unverifiedBuilds.hasNext();
+            }
+
+            @Override
+            public ArchivingTask next() {
+                return new ArchivingTask(unverifiedBuilds.next());
             }
         });
     }
 
+    /**
+     * Creates a pipeline archiving builds in three stages: reading and scanning the logs into a categorized record,
+     * storing the records in batches and marking the builds as archived in PNC.
+     */
+    private StagedPipeline<ArchivingTask> createPipeline() {
+        return new StagedPipeline<ArchivingTask>(
+                executor,
+                pipelineQueueSize,
+                registry,
+                className + ".pipeline",
+                task -> "build " + task.build.getId())
+                .stage("logs", pipelineLogReaders, this::prepareRecord)
+                .batchStage(
+                        "persist",
+                        pipelineWriters,
+                        pipelineBatchSize,
+                        tasks -> recordWriter.upsert(tasks.stream().map(task -> task.record).toList()))
+                .stage("mark", pipelineMarkers, task -> markArchived(task.build));
+    }
+
+    /**
+     * Iterates over the unarchived builds, loading the next page while the current one is archived. The pages are
+     * requested by the submit time, see {@link SubmitTimePageLoader}.
+     */
+    private Iterator<Build> unarchivedBuilds() {
+        return new PrefetchingPageIterator<Build>(new SubmitTimePageLoader((submittedFrom, size) -> {
+            List<Build> builds = getUnarchivedBuilds(submittedFrom, size);
+            logger.info("Found {} unverified builds submitted from {}.", builds.size(), submittedFrom);
+            return builds;
+        }), executor, pageSizeTuner);
+    }
+
+    /**
+     * Reads one page of unarchived builds submitted at or after the given time, ordered by the submit time.
+     *
+     * @param submittedFrom submit time of the last build of the previous page, {@code null} for the first page
+     * @param pageSize maximal number of builds to read
+     */
     @Timed
-    RemoteCollection<Build> getUnarchivedBuilds() {
+    List<Build> getUnarchivedBuilds(Instant submittedFrom, int pageSize) {
         BuildsFilterParameters buildsFilterParameters = new BuildsFilterParameters();
         buildsFilterParameters.setRunning(false);
         List<String> attributes = Collections.singletonList("!" + BUILD_ARCHIVED);
-        try {
-            return buildClient.getAll(buildsFilterParameters, attributes);
+        Optional<String> query = Optional.ofNullable(submittedFrom)
+                .map(time -> "submitTime=ge=" + DateTimeFormatter.ISO_INSTANT.format(time));
+        try (BuildClient buildClient = orchClientProducer.getBuildClient(pageSize)) {
+            RemoteCollection<Build> builds = buildClient
+                    .getAll(buildsFilterParameters, attributes, Optional.of("=asc=submitTime"), query);
+            // take just the first page, the iterator would load the following ones
+            List<Build> page = new ArrayList<>(pageSize);
+            Iterator<Build> iterator = builds.iterator();
+            while (page.size() < pageSize && iterator.hasNext()) {
+                page.add(iterator.next());
+            }
+            return page;
         } catch (RemoteResourceException e) {
             logger.error("Cannot read remote builds.", e);
-            return RemoteCollection.empty();
+            return Collections.emptyList();
         }
     }
 
     @Timed
     public void archiveBuild(Build build) {
+        ArchivingTask task = new ArchivingTask(build);
+        readLogs(task);
+        archiveBuildRecord(build, task.buildLog, task.alignmentLog);
+        markArchived(build);
+    }
+
+    private void prepareRecord(ArchivingTask task) {
+        readLogs(task);
+        task.record = createArchivedBuildRecord(task.build, task.buildLog, task.alignmentLog);
+        // the record holds the buffers of the trimmed logs, the parsers are not needed anymore
+        task.buildLog = null;
+        task.alignmentLog = null;
+    }
+
+    private void readLogs(ArchivingTask task) {
+        Build build = task.build;
         logger.info("Archiving build {}", build.getId());
-        long trimLogSize = 0;
-        if (build.getTemporaryBuild() && build.getStatus() != BuildStatus.SUCCESS) {
-            trimLogSize = trimmedLogMaxSize;
-        }
+        boolean trimmed = build.getTemporaryBuild() && build.getStatus() != BuildStatus.SUCCESS;
+        long trimLogSize = trimmed ? trimmedLogMaxSize : 0;
 
         LogParser alignmentLog;
         LogParser buildLog;
         if (build.getStatus() == BuildStatus.NO_REBUILD_REQUIRED
                 || build.getStatus() == BuildStatus.REJECTED_FAILED_DEPENDENCIES) {
-            alignmentLog = BuildCategorizer.getLogParser(0);
-            buildLog = BuildCategorizer.getLogParser(0);
+            alignmentLog = BuildCategorizer.getAlignmentLogParser(build.getStatus(), 0);
+            buildLog = BuildCategorizer.getBuildLogParser(build.getStatus(), 0);
         } else {
-            alignmentLog = getLogParser("alignment-log", trimLogSize, build.getId());
-            buildLog = getLogParser("build-log", trimLogSize, build.getId());
+            int contextLines = BuildCategorizer.isCategorized(build.getStatus()) ? matchContextLines : 0;
+            // the alignment log is read in the background while this thread reads the build log
+            CompletableFuture<LogParser> alignmentLogFuture = executor.supplyAsync(
+                    () -> readLog(
+                            "alignment-log",
+                            build.getId(),
+                            () -> BuildCategorizer
+                                    .getAlignmentLogParser(build.getStatus(), trimLogSize, contextLines)));
+            try {
+                buildLog = readLog(
+                        "build-log",
+                        build.getId(),
+                        () -> BuildCategorizer.getBuildLogParser(build.getStatus(), trimLogSize, contextLines));
+            } catch (RuntimeException ex) {
+                // don't leave the alignment log downloading on the shared executor after the task failed
+                try {
+                    alignmentLogFuture.join();
+                } catch (CompletionException alignmentEx) {
+                    ex.addSuppressed(alignmentEx.getCause());
+                }
+                throw ex;
+            }
+            try {
+                alignmentLog = alignmentLogFuture.join();
+            } catch (CompletionException ex) {
+                throw (ex.getCause() instanceof RuntimeException cause) ? cause : ex;
+            }
         }
 
-        self.archiveBuildRecord(build, buildLog, alignmentLog);
+        task.buildLog = buildLog;
+        task.alignmentLog = alignmentLog;
+    }
 
+    private void markArchived(Build build) {
         try (BuildClient buildClientAuthenticated = orchClientProducer.getAuthenticatedBuildClient()) {
             buildClientAuthenticated.addAttribute(build.getId(), BUILD_ARCHIVED, "true");
         } catch (RemoteResourceException ex) {
@@ -136,19 +294,73 @@ public class BuildArchiver {
         }
     }
 
-    private LogParser getLogParser(String tag, long trimLogSize, String buildID) {
+    /**
+     * Reads the log from the cache or downloads it. A cached log that can't be read to the end is evicted and
+     * downloaded, scanned by a new parser, as the first one has seen a part of the log.
+     */
+    private LogParser readLog(String tag, String buildID, Supplier<LogParser> parsers) {
+        LogParser logParser = parsers.get();
+        try (InputStream cached = logCache.open(buildID, tag)) {
+            if (cached != null) {
+                logger.info("Reading cached " + tag + " of build " + buildID);
+                scan(cached, logParser);
+                return logParser;
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            logger.warn("Failed to read cached " + tag + " of build " + buildID + ", downloading it", ex);
+            logCache.evict(buildID, tag);
+            logParser = parsers.get();
+        }
         logger.info("Reading " + tag + " of build " + buildID);
-        LogParser buildLog = BuildCategorizer.getLogParser(trimLogSize);
         try (Response response = finalLogs.getFinalLog(buildID, tag)) {
             if (response.getStatus() == 200) {
-                buildLog.findMatches(new BufferedReader(response.readEntity(Reader.class)));
+                try (InputStream log = logCache.cache(buildID, tag, response.readEntity(InputStream.class))) {
+                    scan(log, logParser);
+                }
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read " + tag + " of build " + buildID, ex);
+        }
+        return logParser;
+    }
+
+    /**
+     * Scans the log straight from the stream or, with {@code buildArchiver.logSpool.enabled} and
+     * {@code buildArchiver.logSpool.chunkSize} set, reads it into a {@link LogSpool} first. A log spooled to a file is
+     * scanned in chunks in parallel. A single pass over the log gains nothing from spooling it, so without the chunk
+     * size the log is streamed.
+     */
+    private void scan(InputStream log, LogParser logParser) throws IOException {
+        if (!logSpoolEnabled || chunkScanPool == null) {
+            logParser.findMatches(log);
+            return;
+        }
+        try (LogSpool spool = LogSpool.read(log, logSpoolMemoryThreshold, Path.of(logSpoolDirectory))) {
+            if (spool.isSpooled()) {
+                logParser.findMatches(spool, logSpoolChunkSize, chunkScanPool);
+            } else {
+                logParser.findMatches(spool.open());
             }
         }
-        return buildLog;
     }
 
-    @Transactional
+    /**
+     * Joins the match contexts of both logs, {@code null} if there is none.
+     */
+    private static String matchContext(LogParser buildLog, LogParser alignmentLog) {
+        String buildLogContext = buildLog.getMatchContext();
+        String alignmentLogContext = alignmentLog.getMatchContext();
+        if (buildLogContext.isEmpty() && alignmentLogContext.isEmpty()) {
+            return null;
+        }
+        return "=== build-log\n" + buildLogContext + "=== alignment-log\n" + alignmentLogContext;
+    }
+
     public void archiveBuildRecord(Build build, LogParser buildLog, LogParser alignmentLog) {
+        recordWriter.upsert(List.of(createArchivedBuildRecord(build, buildLog, alignmentLog)));
+    }
+
+    private ArchivedBuildRecord createArchivedBuildRecord(Build build, LogParser buildLog, LogParser alignmentLog) {
         ArchivedBuildRecord archivedBuildRecord;
         try {
             archivedBuildRecord = mapBuild(build);
@@ -166,21 +378,19 @@ public class BuildArchiver {
         }
         archivedBuildRecord.buildType = buildType;
 
-        archivedBuildRecord.trimmedBuildLog = buildLog.getTrimmedLog();
-        archivedBuildRecord.trimmedAlignLog = alignmentLog.getTrimmedLog();
+        archivedBuildRecord.matchContext = matchContext(buildLog, alignmentLog);
+        archivedBuildRecord.trimmedBuildLogBuffer = buildLog.getTrimmedLogBuffer();
+        archivedBuildRecord.trimmedAlignLogBuffer = alignmentLog.getTrimmedLogBuffer();
 
         archivedBuildRecord.status = processErrors(archivedBuildRecord, build.getStatus(), buildLog, alignmentLog);
 
-        archivedBuildRecord.persist();
+        return archivedBuildRecord;
     }
 
     private ArchivedBuildRecord mapBuild(Build build) throws RemoteResourceException {
-        long dbID = parseBuildID(build.getId());
-        ArchivedBuildRecord archived = ArchivedBuildRecord.findById(dbID);
-        if (archived == null) {
-            archived = new ArchivedBuildRecord();
-            archived.buildRecordId = dbID;
-        }
+        // the record replaces the stored one as a whole, so there is no need to load it
+        ArchivedBuildRecord archived = new ArchivedBuildRecord();
+        archived.buildRecordId = parseBuildID(build.getId());
 
         archived.submitTime = build.getSubmitTime();
         archived.startTime = build.getStartTime();
@@ -217,7 +427,7 @@ public class BuildArchiver {
             archived.productMilestoneID = parseProductMilestoneID(productMilestone.getId());
             archived.productMilestoneVersion = productMilestone.getVersion();
 
-            ProductVersion productVersion = getProductVersion(productMilestone.getId());
+            ProductVersion productVersion = productVersionResolver.getProductVersion(productMilestone.getId());
             archived.productVersionID = parseProductVersionID(productVersion.getId());
             archived.productVersion = productVersion.getVersion();
 
@@ -268,11 +478,15 @@ public class BuildArchiver {
         return Long.parseLong(id);
     }
 
-    private ProductVersion getProductVersion(String productMilestoneID) throws RemoteResourceException {
-        ProductMilestone productMilestone = productMilestoneClient.getSpecific(productMilestoneID);
-        String productVersionID = productMilestone.getProductVersion().getId();
-        ProductVersion productVersion = productVersionClient.getSpecific(productVersionID);
-        return productVersion;
+    private static class ArchivingTask {
+        final Build build;
+        LogParser buildLog;
+        LogParser alignmentLog;
+        ArchivedBuildRecord record;
+
+        ArchivingTask(Build build) {
+            this.build = build;
+        }
     }
 
     private String getNullableID(DTOEntity dtoEntity) {
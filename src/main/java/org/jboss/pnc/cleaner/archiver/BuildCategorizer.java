@@ -18,6 +18,12 @@
 package org.jboss.pnc.cleaner.archiver;
 
 import lombok.Value;
+import org.jboss.pnc.enums.BuildStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.INDY;
 import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.ND;
@@ -198,11 +204,85 @@ public class BuildCategorizer {
             FAILED_CONNECT_TIMED_OUT,
             DBREW_PULL_ACTIVE_TRUE, };
 
+    /** Patterns {@link #categorizeErrors(LogParser, LogParser)} reads from the alignment log. */
+    static final String[] alignmentLogErrors = {
+            REST_COMMUNICATION_WITH_HTTP_DA_DA_REST_V_1_FAILED,
+            NO_ROUTE_TO_HOST_HOST_UNREACHABLE,
+            FAILED_TO_OBTAIN_VERSIONS,
+            RECEIVED_RESPONSE_STATUS_500,
+            READ_TIMED_OUT,
+            DA_80_FAILED_TO_RESPOND,
+            COULD_NOT_FIND_THE_GROUP_ID_IN_THE_POM_XML,
+            DMANIPULATION_DISABLE_TRUE,
+            DMANIPULATION_DISABLE_TRUE1,
+            EXECUTION_ROOT_NAME_PARAMETER_HAS_AS_VALUE_THE_WRONG_FORMAT,
+            NO_SUCH_FILE_OR_DIRECTORY,
+            FILE, };
+    /** Patterns read from the build log of every archived build. */
+    static final String[] buildLogFlags = { FRONTEND_MAVEN_PLUGIN, };
+    /** Patterns read from the alignment log of every archived build. */
+    static final String[] alignmentLogFlags = {
+            DMANIPULATION_DISABLE_TRUE,
+            DMANIPULATION_DISABLE_TRUE1,
+            DBREW_PULL_ACTIVE_TRUE, };
+
+    static final LogPatternSet logPatterns = new LogPatternSet(List.of(literalErrors), List.of(regExpErrors));
+    private static final LogPatternSet buildLogFlagPatterns = select(buildLogFlags);
+    private static final LogPatternSet alignmentLogFlagPatterns = select(alignmentLogFlags);
+    private static final LogPatternSet alignmentLogErrorPatterns = select(
+            Stream.concat(Stream.of(alignmentLogErrors), Stream.of(alignmentLogFlags)).toArray(String[]::new));
+
     public static LogParser getLogParser(long trimLogSize) {
-        LogParser logParser = new LogParser(trimLogSize);
-        logParser.addLiteralLines(literalErrors);
-        logParser.addRegExpLines(regExpErrors);
-        return logParser;
+        return new LogParser(logPatterns, trimLogSize);
+    }
+
+    /**
+     * Creates a parser scanning the build log only for the patterns read for a build with the given status.
+     */
+    public static LogParser getBuildLogParser(BuildStatus status, long trimLogSize) {
+        return getBuildLogParser(status, trimLogSize, 0);
+    }
+
+    /**
+     * Creates a parser scanning the build log only for the patterns read for a build with the given status and keeping
+     * the given number of lines around their first matches.
+     */
+    public static LogParser getBuildLogParser(BuildStatus status, long trimLogSize, int contextLines) {
+        return new LogParser(isCategorized(status) ? logPatterns : buildLogFlagPatterns, trimLogSize, contextLines);
+    }
+
+    /**
+     * Creates a parser scanning the alignment log only for the patterns read for a build with the given status.
+     */
+    public static LogParser getAlignmentLogParser(BuildStatus status, long trimLogSize) {
+        return getAlignmentLogParser(status, trimLogSize, 0);
+    }
+
+    /**
+     * Creates a parser scanning the alignment log only for the patterns read for a build with the given status and
+     * keeping the given number of lines around their first matches.
+     */
+    public static LogParser getAlignmentLogParser(BuildStatus status, long trimLogSize, int contextLines) {
+        LogPatternSet patterns = isCategorized(status) ? alignmentLogErrorPatterns : alignmentLogFlagPatterns;
+        return new LogParser(patterns, trimLogSize, contextLines);
+    }
+
+    /**
+     * Whether errors of builds with the given status are categorized with
+     * {@link #categorizeErrors(LogParser, LogParser)}.
+     */
+    public static boolean isCategorized(BuildStatus status) {
+        return status == BuildStatus.FAILED || status == BuildStatus.SYSTEM_ERROR;
+    }
+
+    private static LogPatternSet select(String... patterns) {
+        Set<String> regExps = Set.of(regExpErrors);
+        List<String> selectedLiterals = new ArrayList<>();
+        List<String> selectedRegExps = new ArrayList<>();
+        for (String pattern : patterns) {
+            (regExps.contains(pattern) ? selectedRegExps : selectedLiterals).add(pattern);
+        }
+        return new LogPatternSet(selectedLiterals, selectedRegExps);
     }
 
     public static DetectedCategory categorizeErrors(LogParser buildLog, LogParser alignmentLog) {
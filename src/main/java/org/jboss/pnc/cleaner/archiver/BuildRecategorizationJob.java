@@ -0,0 +1,443 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup;
+import org.jboss.pnc.cleaner.archiver.BuildCategorizer.DetectedCategory;
+import org.jboss.pnc.cleaner.common.AppInfo;
+import org.jboss.pnc.enums.BuildStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.INDY;
+import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.ND;
+
+/**
+ * Runs the current {@link BuildCategorizer} rules over the stored trimmed logs of the archived builds and updates the
+ * error categories that changed. The rules belong to the build of the cleaner, so each version runs over the archive
+ * once, its progress is kept in {@code _recategorization_runs}.
+ * <p>
+ * The builds are read in batches of {@code batchSize} ordered by id, without locking them, the logs as the bytes of
+ * their large objects, which are decoded by the workers. The builds of a batch are categorized in parallel on a
+ * fork-join pool, the changes are applied in a short transaction along with their rollup rows and the progress. A
+ * build is updated only if it is still stored as it was categorized, a build locked by the archiver is skipped
+ * instead of waited for, it is left to the next version. The job reads at most {@code maxRowsPerSecond} builds per
+ * second, so that it doesn't compete with the archiver for the database.
+ * <p>
+ * The builds are categorized by the rules of {@link BuildArchiver}, which depend on the status the build had in PNC. It
+ * is not archived, but follows from the archived status and category: failed builds have a category only if they were
+ * system errors before, system errors have one unless they were failed builds categorized as {@code INDY}. For
+ * those the status is unknown, they change only to another {@code INDY} message. The status is updated along with the
+ * category, just like the archiver changes it.
+ * <p>
+ * Only the builds with a stored build log that is not empty are read. The stored logs are trimmed, so a category is
+ * never replaced by {@code ND}, the patterns it was found by may have been cut off.
+ */
+@ApplicationScoped
+public class BuildRecategorizationJob {
+    private final Logger logger = LoggerFactory.getLogger(BuildRecategorizationJob.class);
+    private static final String className = BuildRecategorizationJob.class.getName();
+
+    /** Hash of the empty log, the builds archived with an empty build log have nothing to be categorized by. */
+    static final String EMPTY_LOG_HASH = LogDigest.sha256(new StringReader(""));
+
+    /** A build without a build log doesn't match the hash either. */
+    static final String SELECT = "SELECT r.buildrecord_id, r.submittime, r.starttime, r.endtime, r.status,"
+            + " r.buildtype, r.categorized_error_group, r.categorized_error_msg, r.trimmed_buildlog_hash,"
+            + " r.trimmed_repourlog_hash, lo_get(b.content), b.content_gz, lo_get(a.content), a.content_gz"
+            + " FROM _archived_buildrecords r"
+            + " LEFT JOIN _archived_logs b ON b.hash = r.trimmed_buildlog_hash"
+            + " LEFT JOIN _archived_logs a ON a.hash = r.trimmed_repourlog_hash"
+            + " WHERE r.buildrecord_id > ? AND r.status IN ('FAILED', 'SYSTEM_ERROR')"
+            + " AND r.trimmed_buildlog_hash <> ?"
+            + " ORDER BY r.buildrecord_id LIMIT ?";
+
+    /**
+     * Updates the build only if it is still stored as it was read, so that the rollup changes computed from the read
+     * build stay right. A build locked by another transaction is skipped instead of waited for.
+     */
+    static final String UPDATE = "UPDATE _archived_buildrecords r SET status = ?, categorized_error_group = ?,"
+            + " categorized_error_msg = ?"
+            + " FROM (SELECT buildrecord_id, submittime FROM _archived_buildrecords"
+            + " WHERE buildrecord_id = ? AND submittime = ? AND starttime IS NOT DISTINCT FROM ?"
+            + " AND endtime IS NOT DISTINCT FROM ? AND status = ? AND buildtype IS NOT DISTINCT FROM ?"
+            + " AND categorized_error_group IS NOT DISTINCT FROM ? AND categorized_error_msg IS NOT DISTINCT FROM ?"
+            + " AND trimmed_buildlog_hash = ? AND trimmed_repourlog_hash IS NOT DISTINCT FROM ?"
+            + " FOR UPDATE SKIP LOCKED) stored"
+            + " WHERE r.buildrecord_id = stored.buildrecord_id AND r.submittime = stored.submittime";
+
+    static final String SELECT_RUN = "SELECT last_buildrecord_id, processed, changed, finished"
+            + " FROM _recategorization_runs WHERE run = ?";
+
+    static final String UPSERT_RUN = "INSERT INTO _recategorization_runs"
+            + " (run, last_buildrecord_id, processed, changed, finished, updatetime) VALUES (?, ?, ?, ?, ?, now())"
+            + " ON CONFLICT (run) DO UPDATE SET last_buildrecord_id = EXCLUDED.last_buildrecord_id,"
+            + " processed = EXCLUDED.processed, changed = EXCLUDED.changed, finished = EXCLUDED.finished,"
+            + " updatetime = EXCLUDED.updatetime";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    BuildRecategorizationJob self;
+
+    @ConfigProperty(name = "buildArchiver.recategorization.batchSize", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "buildArchiver.recategorization.parallelism", defaultValue = "2")
+    int parallelism;
+
+    @ConfigProperty(name = "buildArchiver.recategorization.maxRowsPerSecond", defaultValue = "200")
+    int maxRowsPerSecond;
+
+    @Timed
+    @Scheduled(
+            cron = "{buildArchiver.recategorization.cron}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void recategorizeArchivedBuilds() {
+        run(AppInfo.getVersion() + "-" + AppInfo.getRevision());
+    }
+
+    void run(String run) {
+        Progress progress = loadProgress(run);
+        if (progress.finished) {
+            logger.info("Archived builds were already re-categorized by {}.", run);
+            return;
+        }
+        logger.info("Re-categorizing archived builds by {} after build {} ...", run, progress.lastBuildId);
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            while (!progress.finished) {
+                recategorizeBatch(run, progress, pool);
+                logger.debug("Re-categorized archived builds up to {}", progress.lastBuildId);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        logger.info(
+                "Re-categorized {} archived builds, {} changed, in {} ms.",
+                progress.processed,
+                progress.changed,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Re-categorizes the next batch of builds and stores the progress along with the changes.
+     */
+    private void recategorizeBatch(String run, Progress progress, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        List<StoredBuild> builds = readBuilds(progress.lastBuildId);
+        List<Change> changes = recategorize(builds, pool);
+        int applied = self.applyChanges(run, builds, changes, progress);
+        registry.counter(className + ".processed.count").increment(builds.size());
+        registry.counter(className + ".changed.count").increment(applied);
+        registry.counter(className + ".skipped.count").increment(changes.size() - applied);
+        throttle(builds.size(), start);
+    }
+
+    private List<StoredBuild> readBuilds(long afterBuildId) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement select = connection.prepareStatement(SELECT)) {
+            select.setLong(1, afterBuildId);
+            select.setString(2, EMPTY_LOG_HASH);
+            select.setInt(3, batchSize);
+            List<StoredBuild> builds = new ArrayList<>(batchSize);
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    builds.add(read(result));
+                }
+            }
+            return builds;
+        } catch (SQLException ex) {
+            registry.counter(className + ".error.count").increment();
+            throw new RuntimeException("Failed to read archived builds after " + afterBuildId, ex);
+        }
+    }
+
+    private static List<Change> recategorize(List<StoredBuild> builds, ForkJoinPool pool) {
+        try {
+            return pool.submit(
+                    () -> builds.parallelStream()
+                            .map(BuildRecategorizationJob::recategorize)
+                            .filter(Objects::nonNull)
+                            .toList())
+                    .get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while re-categorizing archived builds", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Failed to re-categorize archived builds", ex.getCause());
+        }
+    }
+
+    /**
+     * Updates the changed builds that are still stored as they were read, together with their rollup rows, and stores
+     * the progress past the read builds.
+     *
+     * @return number of the updated builds
+     */
+    @Transactional
+    public int applyChanges(String run, List<StoredBuild> builds, List<Change> changes, Progress progress) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement update = connection.prepareStatement(UPDATE)) {
+            int applied = 0;
+            if (!changes.isEmpty()) {
+                for (Change change : changes) {
+                    bind(update, change);
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                ArchivedBuildRollupDeltas rollup = new ArchivedBuildRollupDeltas();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        change(rollup, changes.get(i));
+                        applied++;
+                    }
+                }
+                rollup.apply(connection);
+            }
+            if (!builds.isEmpty()) {
+                progress.lastBuildId = builds.get(builds.size() - 1).id;
+            }
+            progress.processed += builds.size();
+            progress.changed += applied;
+            progress.finished = builds.size() < batchSize;
+            saveProgress(connection, run, progress);
+            return applied;
+        } catch (SQLException ex) {
+            registry.counter(className + ".error.count").increment();
+            throw new RuntimeException("Failed to re-categorize archived builds after " + progress.lastBuildId, ex);
+        }
+    }
+
+    private static void bind(PreparedStatement update, Change change) throws SQLException {
+        StoredBuild build = change.build;
+        update.setString(1, change.status.name());
+        update.setString(2, change.errorGroup == null ? null : change.errorGroup.name());
+        update.setString(3, change.errorMessage);
+        update.setLong(4, build.id);
+        update.setObject(5, build.submitTime);
+        update.setObject(6, build.startTime, Types.TIMESTAMP_WITH_TIMEZONE);
+        update.setObject(7, build.endTime, Types.TIMESTAMP_WITH_TIMEZONE);
+        update.setString(8, build.status);
+        update.setString(9, build.buildType);
+        update.setString(10, build.errorGroup == null ? null : build.errorGroup.name());
+        update.setString(11, build.errorMessage);
+        update.setString(12, build.buildLogHash);
+        update.setString(13, build.alignmentLogHash);
+    }
+
+    private static void change(ArchivedBuildRollupDeltas rollup, Change change) {
+        StoredBuild build = change.build;
+        rollup.change(
+                build.submitTime.toInstant(),
+                instant(build.startTime),
+                instant(build.endTime),
+                build.status,
+                build.errorGroup == null ? null : build.errorGroup.name(),
+                build.errorMessage,
+                build.buildType,
+                -1);
+        rollup.change(
+                build.submitTime.toInstant(),
+                instant(build.startTime),
+                instant(build.endTime),
+                change.status.name(),
+                change.errorGroup == null ? null : change.errorGroup.name(),
+                change.errorMessage,
+                build.buildType,
+                1);
+    }
+
+    /**
+     * Categorizes the build by its stored logs like {@link BuildArchiver} does for the status the build had in PNC.
+     *
+     * @return the change of the status and category, {@code null} if they stay the same
+     */
+    static Change recategorize(StoredBuild build) {
+        BuildStatus archivedStatus = BuildStatus.valueOf(build.status);
+        // failed builds categorized as INDY are archived as system errors, the original status is unknown
+        boolean unknownStatus = archivedStatus == BuildStatus.SYSTEM_ERROR && build.errorGroup == INDY;
+        BuildStatus originalStatus = archivedStatus == BuildStatus.SYSTEM_ERROR || build.errorGroup != null
+                ? BuildStatus.SYSTEM_ERROR
+                : BuildStatus.FAILED;
+        LogParser buildLog = BuildCategorizer.getBuildLogParser(originalStatus, 0);
+        buildLog.findMatches(new BufferedReader(build.buildLog.reader()));
+        LogParser alignmentLog = BuildCategorizer.getAlignmentLogParser(originalStatus, 0);
+        alignmentLog.findMatches(new BufferedReader(build.alignmentLog.reader()));
+        DetectedCategory category = BuildCategorizer.categorizeErrors(buildLog, alignmentLog);
+
+        Change change;
+        if (category.getCategory() == INDY) {
+            change = new Change(build, BuildStatus.SYSTEM_ERROR, INDY, category.getMessage());
+        } else if (unknownStatus || build.errorGroup != null && category.getCategory() == ND) {
+            return null;
+        } else if (originalStatus == BuildStatus.SYSTEM_ERROR) {
+            change = new Change(
+                    build,
+                    category.isPreviouslyMarkedSystemError() ? BuildStatus.FAILED : BuildStatus.SYSTEM_ERROR,
+                    category.getCategory(),
+                    category.getMessage());
+        } else {
+            change = new Change(build, BuildStatus.FAILED, null, null);
+        }
+        if (change.status == archivedStatus && change.errorGroup == build.errorGroup
+                && Objects.equals(change.errorMessage, build.errorMessage)) {
+            return null;
+        }
+        return change;
+    }
+
+    /**
+     * Waits so that the builds are not processed faster than {@code maxRowsPerSecond}.
+     */
+    private void throttle(int rows, long startNanos) {
+        long minimalNanos = TimeUnit.SECONDS.toNanos(rows) / maxRowsPerSecond;
+        long remainingNanos = minimalNanos - (System.nanoTime() - startNanos);
+        if (remainingNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while re-categorizing archived builds", ex);
+            }
+        }
+    }
+
+    private static StoredBuild read(ResultSet result) throws SQLException {
+        String errorGroup = result.getString(7);
+        return new StoredBuild(
+                result.getLong(1),
+                result.getObject(2, OffsetDateTime.class),
+                result.getObject(3, OffsetDateTime.class),
+                result.getObject(4, OffsetDateTime.class),
+                result.getString(5),
+                result.getString(6),
+                errorGroup == null ? null : ErrorGroup.valueOf(errorGroup),
+                result.getString(8),
+                result.getString(9),
+                result.getString(10),
+                new StoredLog(result.getBytes(11), result.getBytes(12)),
+                new StoredLog(result.getBytes(13), result.getBytes(14)));
+    }
+
+    private static Instant instant(OffsetDateTime time) {
+        return time == null ? null : time.toInstant();
+    }
+
+    private Progress loadProgress(String run) {
+        Progress progress = new Progress();
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement select = connection.prepareStatement(SELECT_RUN)) {
+            select.setString(1, run);
+            try (ResultSet result = select.executeQuery()) {
+                if (result.next()) {
+                    progress.lastBuildId = result.getLong(1);
+                    progress.processed = result.getLong(2);
+                    progress.changed = result.getLong(3);
+                    progress.finished = result.getBoolean(4);
+                }
+            }
+            return progress;
+        } catch (SQLException ex) {
+            registry.counter(className + ".error.count").increment();
+            throw new RuntimeException("Failed to load the progress of re-categorization " + run, ex);
+        }
+    }
+
+    private static void saveProgress(Connection connection, String run, Progress progress) throws SQLException {
+        try (PreparedStatement upsert = connection.prepareStatement(UPSERT_RUN)) {
+            upsert.setString(1, run);
+            upsert.setLong(2, progress.lastBuildId);
+            upsert.setLong(3, progress.processed);
+            upsert.setLong(4, progress.changed);
+            upsert.setBoolean(5, progress.finished);
+            upsert.executeUpdate();
+        }
+    }
+
+    static class Progress {
+        long lastBuildId;
+        long processed;
+        long changed;
+        boolean finished;
+    }
+
+    record StoredBuild(
+            long id,
+            OffsetDateTime submitTime,
+            OffsetDateTime startTime,
+            OffsetDateTime endTime,
+            String status,
+            String buildType,
+            ErrorGroup errorGroup,
+            String errorMessage,
+            String buildLogHash,
+            String alignmentLogHash,
+            StoredLog buildLog,
+            StoredLog alignmentLog) {
+    }
+
+    /**
+     * Log stored either as UTF-8 encoded text or gzip compressed, an empty log if neither is present.
+     */
+    record StoredLog(byte[] content, byte[] compressed) {
+
+        Reader reader() {
+            if (content != null) {
+                return new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+            }
+            return new StringReader(compressed == null ? "" : LogCompression.decompress(compressed));
+        }
+    }
+
+    record Change(StoredBuild build, BuildStatus status, ErrorGroup errorGroup, String errorMessage) {
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import java.io.StringReader;
+
+/**
+ * Maps a log to its gzip compressed form. Decompression is timed by {@code <className>.decompress}.
+ */
+@Converter
+public class CompressedLogConverter implements AttributeConverter<String, byte[]> {
+
+    private static final String className = CompressedLogConverter.class.getName();
+
+    private final Timer decompressTimer = Metrics.timer(className + ".decompress");
+
+    @Override
+    public byte[] convertToDatabaseColumn(String log) {
+        return log == null ? null : LogCompression.compress(new StringReader(log));
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] compressed) {
+        return compressed == null ? null : decompressTimer.record(() -> LogCompression.decompress(compressed));
+    }
+}
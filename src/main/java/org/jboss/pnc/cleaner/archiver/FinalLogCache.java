@@ -0,0 +1,343 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the final logs downloaded from Bifrost gzip compressed on the local disk, so that a build archived again, for
+ * example after a failure, doesn't download its logs again. The logs are stored by build id and tag, the least
+ * recently used ones are deleted when the cache grows over {@code buildArchiver.logCache.maxSize} bytes. The order of
+ * use is kept in the modification times of the files, so the cache survives a restart.
+ * <p>
+ * A log is cached while it is being read and only if it is read to the end; a log whose reading failed is not cached.
+ * A cached log that turns out to be truncated or corrupt while it is read is evicted by the reader.
+ * The counters {@code <className>.hit.count} and {@code <className>.miss.count} count the lookups, the gauge
+ * {@code <className>.size} is the size of the cached logs.
+ */
+@ApplicationScoped
+public class FinalLogCache {
+    private final Logger logger = LoggerFactory.getLogger(FinalLogCache.class);
+    private static final String className = FinalLogCache.class.getName();
+
+    private static final String SUFFIX = ".log.gz";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @ConfigProperty(name = "buildArchiver.logCache.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "buildArchiver.logCache.directory", defaultValue = "${java.io.tmpdir}/cleaner-final-logs")
+    String directory;
+
+    @ConfigProperty(name = "buildArchiver.logCache.maxSize", defaultValue = "2147483648")
+    long maxSize;
+
+    @Inject
+    MeterRegistry registry;
+
+    /** Sizes of the cached files by name, the least recently used first. */
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    private Path cacheDirectory;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    @PostConstruct
+    void init() {
+        hits = registry.counter(className + ".hit.count");
+        misses = registry.counter(className + ".miss.count");
+        registry.gauge(className + ".size", this, FinalLogCache::size);
+        if (!enabled) {
+            return;
+        }
+        cacheDirectory = Path.of(directory);
+        try {
+            Files.createDirectories(cacheDirectory);
+            List<Path> files;
+            try (Stream<Path> listed = Files.list(cacheDirectory)) {
+                files = listed.toList();
+            }
+            List<Path> logs = files.stream()
+                    .filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(FinalLogCache::lastModified))
+                    .toList();
+            for (Path file : files) {
+                // left behind by interrupted downloads
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            for (Path log : logs) {
+                added(log.getFileName().toString(), Files.size(log));
+            }
+            logger.info("Final log cache in {} holds {} logs of {} bytes", cacheDirectory, entries.size(), size);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to open the final log cache in " + cacheDirectory, ex);
+        }
+    }
+
+    /**
+     * @return the decompressed cached log, {@code null} if the log is not cached
+     */
+    public InputStream open(String buildId, String tag) {
+        if (!enabled) {
+            return null;
+        }
+        String name = fileName(buildId, tag);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                misses.increment();
+                return null;
+            }
+        }
+        Path file = cacheDirectory.resolve(name);
+        try {
+            InputStream log = new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            hits.increment();
+            return log;
+        } catch (IOException ex) {
+            logger.warn("Failed to read cached " + tag + " of build " + buildId, ex);
+            removed(name);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the cached log, when it can't be read.
+     */
+    public void evict(String buildId, String tag) {
+        if (enabled) {
+            removed(fileName(buildId, tag));
+        }
+    }
+
+    /**
+     * Wraps the downloaded log so that it is cached while it is read. The log is cached when the returned stream is
+     * closed after reading it to the end. Failures of the cache don't affect reading the log.
+     */
+    public InputStream cache(String buildId, String tag, InputStream log) {
+        if (!enabled) {
+            return log;
+        }
+        String name = fileName(buildId, tag);
+        try {
+            Path temp = Files.createTempFile(cacheDirectory, name + ".", TEMP_SUFFIX);
+            return new CachingInputStream(log, temp, name);
+        } catch (IOException ex) {
+            logger.warn("Failed to cache " + tag + " of build " + buildId, ex);
+            return log;
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private synchronized void added(String name, long length) {
+        Long previous = entries.put(name, length);
+        size += length - (previous == null ? 0 : previous);
+        Iterator<Map.Entry<String, Long>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (size > maxSize && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, Long> evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            size -= evicted.getValue();
+            delete(cacheDirectory.resolve(evicted.getKey()));
+        }
+    }
+
+    private synchronized void removed(String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            delete(cacheDirectory.resolve(name));
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            logger.warn("Failed to delete cached log " + file, ex);
+        }
+    }
+
+    private static String fileName(String buildId, String tag) {
+        return (buildId + "-" + tag).replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX;
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Copies the read bytes compressed into a temporary file, which replaces the cached log if the log was read to the
+     * end. The copying stops at the first failure to write.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final Path temp;
+
+        private final String name;
+
+        /** {@code null} after a failure to write. */
+        private OutputStream copy;
+
+        private boolean ended;
+
+        CachingInputStream(InputStream log, Path temp, String name) throws IOException {
+            super(log);
+            this.temp = temp;
+            this.name = name;
+            this.copy = new GZIPOutputStream(Files.newOutputStream(temp), BUFFER_SIZE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read == -1) {
+                ended = true;
+            } else {
+                copy(new byte[] { (byte) read }, 0, 1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                ended = true;
+            } else {
+                copy(buffer, offset, read);
+            }
+            return read;
+        }
+
+        /** Reads the skipped bytes, so that they are copied too. */
+        @Override
+        public long skip(long length) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(length, BUFFER_SIZE)];
+            long skipped = 0;
+            int read;
+            while (skipped < length
+                    && (read = read(buffer, 0, (int) Math.min(length - skipped, buffer.length))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int length) {
+            if (copy == null) {
+                return;
+            }
+            try {
+                copy.write(buffer, offset, length);
+            } catch (IOException ex) {
+                logger.warn("Failed to cache log " + name, ex);
+                closeCopy();
+            }
+        }
+
+        private void finish() {
+            boolean copied = copy != null;
+            closeCopy();
+            boolean complete = copied && ended;
+            try {
+                if (complete) {
+                    long length = Files.size(temp);
+                    Files.move(
+                            temp,
+                            cacheDirectory.resolve(name),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    added(name, length);
+                } else {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ex) {
+                logger.warn("Failed to cache log " + name, ex);
+                delete(temp);
+            }
+        }
+
+        private void closeCopy() {
+            if (copy == null) {
+                return;
+            }
+            try {
+                copy.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to cache log " + name, ex);
+                ended = false;
+            }
+            copy = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of the trimmed logs stored in the {@code bytea} columns of {@link ArchivedBuildRecord}. Build logs
+ * repeat a lot, so they usually compress to a small fraction of their size.
+ */
+final class LogCompression {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private LogCompression() {
+    }
+
+    /**
+     * Compresses the UTF-8 encoded log read from the reader, the log itself is never held in memory as a whole.
+     */
+    static byte[] compress(Reader log) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(compressed, BUFFER_SIZE),
+                StandardCharsets.UTF_8)) {
+            log.transferTo(writer);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to compress log", ex);
+        }
+        return compressed.toByteArray();
+    }
+
+    static String decompress(byte[] compressed) {
+        try (InputStream log = new GZIPInputStream(new ByteArrayInputStream(compressed), BUFFER_SIZE)) {
+            return new String(log.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to decompress log", ex);
+        }
+    }
+}
@@ -20,53 +20,352 @@ package org.jboss.pnc.cleaner.archiver;
 import lombok.Getter;
 
 import java.io.BufferedReader;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
+/**
+ * State of a single scan of a log for the patterns of a {@link LogPatternSet}.
+ */
 public class LogParser {
 
-    private Map<String, LineMatcher> matchers = new HashMap<>();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final LogPatternSet patterns;
+
+    /** Matched string of each pattern by its id, {@code null} if not found yet. */
+    private final String[] matched;
+
+    /** Flags of the literal automaton, see {@link LogPatternSet#literalAutomaton}. */
+    private final boolean[] literalsFound;
+
+    private int literalsRemaining;
+
+    private final boolean[] regExpsFound;
+
+    private int regExpsRemaining;
 
-    private LinkedList<String> trimmedLog = new LinkedList<>();
+    /** Matchers of the fallback regular expressions, created on first use. */
+    private Matcher[] fallbackMatchers;
 
-    private long trimmedLogSize;
-    private long trimLogsSizeLimit;
+    private int fallbacksRemaining;
+
+    private final TrimmedLogBuffer trimmedLog;
+
+    private final long trimLogsSizeLimit;
+
+    /** Whether the first line with the {@link LogPatternSet#EXCEPTION_MARKER} is looked for. */
+    private final boolean exceptionTracked;
 
     private boolean exceptionFound = false;
 
+    /** Lines around the first matches, {@code null} if not kept. */
+    private final MatchContext context;
+
+    private final int contextLines;
+
     @Getter
     private boolean empty = true;
 
     public LogParser(long trimLogsSizeLimit) {
+        this(LogPatternSet.EMPTY, trimLogsSizeLimit);
+    }
+
+    public LogParser(LogPatternSet patterns, long trimLogsSizeLimit) {
+        this(patterns, trimLogsSizeLimit, 0);
+    }
+
+    /**
+     * @param contextLines number of lines kept before and after the first match of each pattern, none if 0
+     */
+    public LogParser(LogPatternSet patterns, long trimLogsSizeLimit, int contextLines) {
+        this(patterns, trimLogsSizeLimit, contextLines, trimLogsSizeLimit > 0);
+    }
+
+    private LogParser(LogPatternSet patterns, long trimLogsSizeLimit, int contextLines, boolean exceptionTracked) {
+        this.patterns = patterns;
+        this.context = contextLines > 0 ? new MatchContext(contextLines) : null;
+        this.contextLines = contextLines;
+        this.exceptionTracked = exceptionTracked;
         this.trimLogsSizeLimit = trimLogsSizeLimit;
+        this.trimmedLog = new TrimmedLogBuffer(trimLogsSizeLimit);
+        matched = new String[patterns.size()];
+        literalsFound = new boolean[patterns.literalAutomaton.getLiteralCount()];
+        literalsRemaining = patterns.literalCount;
+        regExpsFound = new boolean[patterns.regExpCount];
+        regExpsRemaining = patterns.regExpCount;
+        fallbacksRemaining = patterns.fallbackRegExps.length;
     }
 
     public boolean contains(String pattern) {
-        return matchers.get(pattern).isFound();
+        return matched[patterns.id(pattern)] != null;
     }
 
     public String get(String pattern) {
-        return matchers.get(pattern).matchedString();
+        return matched[patterns.id(pattern)];
+    }
+
+    public void findMatches(BufferedReader reader) {
+        reader.lines().forEach(this::processLine);
+    }
+
+    /**
+     * Reads the UTF-8 encoded log and looks for the matches directly in the bytes. Lines are split the same way as by
+     * {@link BufferedReader#readLine()}, but only the lines possibly matching a regular expression are decoded to
+     * strings.
+     */
+    public void findMatches(InputStream input) throws IOException {
+        splitLines(input, (bytes, offset, length, position) -> {
+            processLine(bytes, offset, length);
+            return false;
+        });
     }
 
-    public void addRegExpLines(String... patterns) {
-        for (String pattern : patterns) {
-            matchers.put(pattern, new LineRegExpMatcher(pattern));
+    /**
+     * Scans the spooled log in chunks of about the given size in parallel and merges the results of the chunks in the
+     * order of the log, so the result is the same as of {@link #findMatches(InputStream)}: each pattern keeps its first
+     * match in the log and the trimmed log and the match context contain the same lines. Chunks end after a line feed,
+     * a log with too few of them is scanned in fewer chunks.
+     * <p>
+     * Only the chunks are scanned in parallel. The trimmed log is then read from the end of the log back to the first
+     * line with the {@link LogPatternSet#EXCEPTION_MARKER}, so it takes at most about the size limit of the log.
+     */
+    void findMatches(LogSpool spool, long chunkSize, ForkJoinPool pool) throws IOException {
+        List<Chunk> chunks = chunks(spool, chunkSize);
+        if (chunks.size() == 1) {
+            try (InputStream input = spool.open()) {
+                findMatches(input);
+            }
+            return;
+        }
+        List<Chunk> scanned;
+        try {
+            scanned = pool.submit(() -> chunks.parallelStream().map(chunk -> scan(spool, chunk)).toList()).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while scanning log chunks", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException cause) {
+                throw cause.getCause();
+            }
+            throw new RuntimeException("Failed to scan log chunks", ex.getCause());
+        }
+
+        long exceptionPosition = -1;
+        long linesBefore = 0;
+        for (Chunk chunk : scanned) {
+            merge(chunk.parser, linesBefore);
+            if (exceptionPosition < 0) {
+                exceptionPosition = chunk.exceptionPosition;
+            }
+            linesBefore += chunk.lines;
+        }
+        if (trimLogsSizeLimit > 0) {
+            exceptionFound = exceptionPosition >= 0;
+            trimmedLog.clear();
+            try (InputStream tail = spool.open(trimmedTailStart(spool, exceptionPosition), spool.size())) {
+                splitLines(tail, (bytes, offset, length, position) -> {
+                    trimmedLog.add(bytes, offset, length);
+                    return false;
+                });
+            }
         }
     }
 
-    public void addLiteralLines(String... patterns) {
-        for (String pattern : patterns) {
-            matchers.put(pattern, new LineLiteralMatcher(pattern));
+    /**
+     * Splits the log into chunks ending after a line feed, so that each chunk starts on a new line.
+     */
+    private static List<Chunk> chunks(LogSpool spool, long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
         }
+        List<Chunk> chunks = new ArrayList<>();
+        long from = 0;
+        do {
+            long to = Math.min(spool.size(), from + chunkSize);
+            while (to < spool.size() && spool.get(to - 1) != '\n') {
+                to++;
+            }
+            chunks.add(new Chunk(from, to));
+            from = to;
+        } while (from < spool.size());
+        return chunks;
     }
 
-    public void findMatches(BufferedReader reader) {
-        reader.lines().forEach(this::processLine);
+    /**
+     * Scans a chunk by a new parser of the same patterns. The parser keeps scanning the lines after the chunk for the
+     * context of the matches in the chunk.
+     */
+    private Chunk scan(LogSpool spool, Chunk chunk) {
+        LogParser parser = new LogParser(patterns, 0, contextLines, trimLogsSizeLimit > 0);
+        try {
+            if (parser.context != null) {
+                long end = chunk.from;
+                List<byte[]> before = new ArrayList<>();
+                while (end > 0 && before.size() < contextLines) {
+                    end = previousLineEnd(spool, end);
+                    long start = lineStart(spool, end);
+                    before.add(read(spool, start, Math.min(end, start + MatchContext.MAX_LINE_LENGTH)));
+                    end = start;
+                }
+                for (int i = before.size() - 1; i >= 0; i--) {
+                    parser.context.precedingLine(before.get(i));
+                }
+            }
+            try (InputStream input = spool.open(chunk.from, chunk.to)) {
+                splitLines(input, (bytes, offset, length, position) -> {
+                    boolean exceptionFound = parser.exceptionFound;
+                    parser.processLine(bytes, offset, length);
+                    if (parser.exceptionFound && !exceptionFound) {
+                        chunk.exceptionPosition = chunk.from + position;
+                    }
+                    chunk.lines++;
+                    return false;
+                });
+            }
+            if (parser.context != null && parser.context.isCollecting()) {
+                try (InputStream input = spool.open(chunk.to, spool.size())) {
+                    splitLines(input, (bytes, offset, length, position) -> {
+                        parser.context.line(bytes, offset, length);
+                        return !parser.context.isCollecting();
+                    });
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        chunk.parser = parser;
+        return chunk;
+    }
+
+    /**
+     * Takes over the patterns first found by the parser of a chunk, which come after all the chunks merged before.
+     *
+     * @param linesBefore number of lines before the chunk
+     */
+    private void merge(LogParser chunk, long linesBefore) {
+        empty &= chunk.empty;
+        Set<String> firstFound = new HashSet<>();
+        for (int id = 0; id < matched.length; id++) {
+            if (matched[id] == null && chunk.matched[id] != null) {
+                matched[id] = chunk.matched[id];
+                firstFound.add(patterns.pattern(id));
+                if (id < patterns.literalCount) {
+                    literalsFound[id] = true;
+                    literalsRemaining--;
+                } else if (id < patterns.literalCount + patterns.regExpCount) {
+                    regExpsFound[id - patterns.literalCount] = true;
+                    regExpsRemaining--;
+                } else {
+                    fallbacksRemaining--;
+                }
+            }
+        }
+        if (context != null && !firstFound.isEmpty()) {
+            context.append(chunk.context, firstFound, linesBefore);
+        }
+    }
+
+    /**
+     * Finds the start of the trimmed log: a line such that the lines from it to the end don't fit into the limit, so
+     * the lines before it can't be kept, or the first line with the exception marker, after which the log is trimmed.
+     */
+    private long trimmedTailStart(LogSpool spool, long exceptionPosition) throws IOException {
+        long length = 0;
+        long end = spool.size();
+        while (true) {
+            long start = lineStart(spool, end);
+            // each character takes at most three bytes, so such line can't fit
+            if ((end - start) / 3 > trimLogsSizeLimit) {
+                return start;
+            }
+            length += new String(read(spool, start, end), StandardCharsets.UTF_8).length();
+            if (length > trimLogsSizeLimit || start <= exceptionPosition || start == 0) {
+                return start;
+            }
+            end = previousLineEnd(spool, start);
+        }
+    }
+
+    /**
+     * Returns the start of the line ending at the given position.
+     */
+    private static long lineStart(LogSpool spool, long end) {
+        long start = end;
+        while (start > 0 && spool.get(start - 1) != '\n' && spool.get(start - 1) != '\r') {
+            start--;
+        }
+        return start;
+    }
+
+    /**
+     * Returns the end of the line before the line starting at the given position, which must not be 0.
+     */
+    private static long previousLineEnd(LogSpool spool, long start) {
+        if (start > 1 && spool.get(start - 1) == '\n' && spool.get(start - 2) == '\r') {
+            return start - 2;
+        }
+        return start - 1;
+    }
+
+    private static byte[] read(LogSpool spool, long from, long to) throws IOException {
+        try (InputStream input = spool.open(from, to)) {
+            return input.readAllBytes();
+        }
+    }
+
+    /**
+     * Splits the UTF-8 encoded log into lines the same way as {@link BufferedReader#readLine()} and passes them to the
+     * handler until it asks to stop.
+     */
+    private static void splitLines(InputStream input, LineHandler handler) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        /* position of the beginning of the buffer in the input */
+        long bufferPosition = 0;
+        int start = 0;
+        int end = 0;
+        boolean skipLineFeed = false;
+        int read;
+        while ((read = input.read(buffer, end, buffer.length - end)) >= 0) {
+            for (int i = end; i < end + read; i++) {
+                byte b = buffer[i];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (b == '\n') {
+                        start = i + 1;
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    if (handler.line(buffer, start, i - start, bufferPosition + start)) {
+                        return;
+                    }
+                    start = i + 1;
+                    skipLineFeed = b == '\r';
+                }
+            }
+            end += read;
+            // keep the unfinished line at the beginning of the buffer, growing it if the line doesn't fit
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            bufferPosition += start;
+            end -= start;
+            start = 0;
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        if (end > start) {
+            handler.line(buffer, start, end - start, bufferPosition + start);
+        }
     }
 
     private void processLine(String line) {
@@ -74,92 +373,181 @@ public class LogParser {
             empty = false;
         }
         if (trimLogsSizeLimit > 0) {
-            if (!exceptionFound && line.contains("Caught exception:")) {
+            if (!exceptionFound && line.contains(LogPatternSet.EXCEPTION_MARKER)) {
                 trimmedLog.clear();
-                trimmedLogSize = 0;
                 exceptionFound = true;
             }
-            trimmedLogSize += line.length();
             trimmedLog.add(line);
-            while (trimmedLogSize > trimLogsSizeLimit) {
-                String poll = trimmedLog.poll();
-                trimmedLogSize -= poll.length();
-            }
         }
-        for (LineMatcher matcher : matchers.values()) {
-            if (!matcher.isFound()) {
-                matcher.lineMatches(line);
+        if (literalsRemaining > 0 || regExpsRemaining > 0) {
+            if (updateLiterals(patterns.literalAutomaton.scan(line, literalsFound))) {
+                matchRegExps(line);
             }
         }
+        if (fallbacksRemaining > 0) {
+            matchFallbackRegExps(line);
+        }
+        if (isContextNeeded()) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            context.line(bytes, 0, bytes.length);
+        }
     }
 
-    public String getTrimmedLog() {
-        return trimmedLog.stream().collect(Collectors.joining("\n"));
+    private void processLine(byte[] bytes, int offset, int length) {
+        if (length > 0) {
+            empty = false;
+        }
+        boolean exceptionLine = false;
+        boolean regExpCandidate = false;
+        if (literalsRemaining > 0 || regExpsRemaining > 0 || (exceptionTracked && !exceptionFound)) {
+            int newlyFound = patterns.literalAutomaton.scan(bytes, offset, length, literalsFound);
+            exceptionLine = exceptionTracked && !exceptionFound && literalsFound[patterns.exceptionLiteral];
+            regExpCandidate = updateLiterals(newlyFound);
+        }
+        if (exceptionLine) {
+            trimmedLog.clear();
+            exceptionFound = true;
+        }
+        if (trimLogsSizeLimit > 0) {
+            trimmedLog.add(bytes, offset, length);
+        }
+        if (regExpCandidate || fallbacksRemaining > 0) {
+            String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            if (regExpCandidate) {
+                matchRegExps(line);
+            }
+            if (fallbacksRemaining > 0) {
+                matchFallbackRegExps(line);
+            }
+        }
+        if (isContextNeeded()) {
+            context.line(bytes, offset, length);
+        }
     }
 
-    private interface LineMatcher {
-
-        boolean lineMatches(String line);
-
-        String matchedString();
-
-        boolean isFound();
+    /**
+     * Whether the line has to be passed to the context, which is not needed once all patterns are found and their
+     * snippets are complete.
+     */
+    private boolean isContextNeeded() {
+        return context != null && (literalsRemaining > 0 || regExpsRemaining > 0 || fallbacksRemaining > 0
+                || context.isCollecting() || context.hasPendingMatches());
     }
 
-    private static class LineRegExpMatcher implements LineMatcher {
-        final Matcher matcher;
-        String lineFound;
-
-        private LineRegExpMatcher(String regex) {
-            matcher = Pattern.compile(".*(" + regex + ").*").matcher("");
+    /**
+     * Marks the literal patterns found by the last scan of the literal automaton and resets the per-line flags.
+     *
+     * @return whether the line contains a literal required by a regular expression that wasn't found yet
+     */
+    private boolean updateLiterals(int newlyFound) {
+        boolean regExpCandidate = false;
+        if (newlyFound > 0) {
+            for (int id = 0; id < patterns.literalCount; id++) {
+                if (literalsFound[id] && matched[id] == null) {
+                    matched[id] = patterns.pattern(id);
+                    literalsRemaining--;
+                    firstMatch(id);
+                }
+            }
+            // required literals and the exception marker are looked for in each line anew
+            for (int id = patterns.literalCount; id < patterns.exceptionLiteral; id++) {
+                if (literalsFound[id]) {
+                    literalsFound[id] = false;
+                    regExpCandidate |= matched[id] == null;
+                }
+            }
+            literalsFound[patterns.exceptionLiteral] = false;
         }
+        return regExpCandidate;
+    }
 
-        @Override
-        public boolean lineMatches(String line) {
-            matcher.reset(line);
-            if (matcher.matches()) {
-                lineFound = matcher.group(1);
-                return true;
+    private void matchRegExps(String line) {
+        int newlyFound = patterns.regExpAutomaton.scan(line, regExpsFound);
+        if (newlyFound > 0) {
+            regExpsRemaining -= newlyFound;
+            for (int i = 0; i < regExpsFound.length; i++) {
+                int id = patterns.literalCount + i;
+                if (regExpsFound[i] && matched[id] == null) {
+                    matched[id] = patterns.regExpAutomaton.capture(i, line);
+                    firstMatch(id);
+                }
             }
-            return false;
         }
+    }
 
-        @Override
-        public String matchedString() {
-            return lineFound;
+    private void matchFallbackRegExps(String line) {
+        if (fallbackMatchers == null) {
+            fallbackMatchers = new Matcher[patterns.fallbackRegExps.length];
+            for (int i = 0; i < fallbackMatchers.length; i++) {
+                fallbackMatchers[i] = patterns.fallbackRegExps[i].matcher("");
+            }
         }
+        int firstId = patterns.literalCount + patterns.regExpCount;
+        for (int i = 0; i < fallbackMatchers.length; i++) {
+            Matcher matcher = fallbackMatchers[i];
+            if (matched[firstId + i] == null && matcher.reset(line).matches()) {
+                matched[firstId + i] = matcher.group(1);
+                fallbacksRemaining--;
+                firstMatch(firstId + i);
+            }
+        }
+    }
 
-        @Override
-        public boolean isFound() {
-            return lineFound != null;
+    private void firstMatch(int id) {
+        if (context != null) {
+            context.matched(patterns.pattern(id));
         }
     }
 
-    private static class LineLiteralMatcher implements LineMatcher {
-        private final String pattern;
-        private boolean found = false;
+    /**
+     * Returns the lines around the first match of each pattern, see {@link MatchContext#toString()}, an empty string
+     * if no pattern was found or no context is kept.
+     */
+    public String getMatchContext() {
+        return context == null ? "" : context.toString();
+    }
 
-        private LineLiteralMatcher(String pattern) {
-            this.pattern = pattern;
-        }
+    public String getTrimmedLog() {
+        return trimmedLog.toString();
+    }
 
-        @Override
-        public boolean lineMatches(String line) {
-            if (line.contains(pattern)) {
-                found = true;
-                return true;
-            }
-            return false;
-        }
+    /**
+     * Returns the buffer holding the trimmed log, for writing it out without joining it into a string first.
+     */
+    TrimmedLogBuffer getTrimmedLogBuffer() {
+        return trimmedLog;
+    }
 
-        @Override
-        public String matchedString() {
-            return found ? pattern : null;
-        }
+    @FunctionalInterface
+    private interface LineHandler {
+
+        /**
+         * @param position position of the line in the input
+         * @return whether to stop reading
+         */
+        boolean line(byte[] bytes, int offset, int length, long position);
+    }
+
+    /**
+     * Part of a spooled log scanned by its own parser.
+     */
+    private static final class Chunk {
+
+        final long from;
+
+        final long to;
+
+        LogParser parser;
+
+        /** Number of lines of the chunk, counted only when the parser keeps a match context. */
+        long lines;
+
+        /** Position of the first line with the exception marker, -1 if there is none. */
+        long exceptionPosition = -1;
 
-        @Override
-        public boolean isFound() {
-            return found;
+        Chunk(long from, long to) {
+            this.from = from;
+            this.to = to;
         }
     }
 }
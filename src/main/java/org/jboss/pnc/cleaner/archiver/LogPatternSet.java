@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable set of literal and regular expression patterns compiled for {@link LogParser}.
+ * <p>
+ * The set is compiled once and can be shared by any number of parsers running concurrently, each parser keeps only the
+ * state of its own scan. Every pattern gets an id: the literals come first, then the regular expressions supported by
+ * {@link RegExpAutomaton} and then the ones matched by {@link Pattern}.
+ */
+public final class LogPatternSet {
+
+    static final String EXCEPTION_MARKER = "Caught exception:";
+
+    public static final LogPatternSet EMPTY = new LogPatternSet(List.of(), List.of());
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final String[] patterns;
+
+    final int literalCount;
+
+    final int regExpCount;
+
+    /**
+     * Automaton finding the literal patterns followed by the literals required by the regular expressions and by the
+     * {@link #EXCEPTION_MARKER}. The literal required by a regular expression has the same index as the expression id.
+     */
+    final AhoCorasick literalAutomaton;
+
+    final int exceptionLiteral;
+
+    final RegExpAutomaton regExpAutomaton;
+
+    /** Regular expressions not supported by the automaton, wrapped so that the group captures the matched string. */
+    final Pattern[] fallbackRegExps;
+
+    /**
+     * @param literals patterns found as substrings of a line
+     * @param regExps regular expressions found in a line, overriding a literal of the same value
+     */
+    public LogPatternSet(Collection<String> literals, Collection<String> regExps) {
+        Map<String, Boolean> regExpFlags = new LinkedHashMap<>();
+        literals.forEach(literal -> regExpFlags.put(literal, false));
+        regExps.forEach(regExp -> regExpFlags.put(regExp, true));
+
+        List<String> literalPatterns = new ArrayList<>();
+        List<String> supportedRegExps = new ArrayList<>();
+        List<String> fallbackPatterns = new ArrayList<>();
+        regExpFlags.forEach((pattern, regExp) -> {
+            if (!regExp) {
+                literalPatterns.add(pattern);
+            } else if (RegExpAutomaton.isSupported(pattern)) {
+                supportedRegExps.add(pattern);
+            } else {
+                fallbackPatterns.add(pattern);
+            }
+        });
+        literalCount = literalPatterns.size();
+        regExpCount = supportedRegExps.size();
+
+        List<String> all = new ArrayList<>(literalPatterns);
+        all.addAll(supportedRegExps);
+        all.addAll(fallbackPatterns);
+        patterns = all.toArray(new String[0]);
+        for (int id = 0; id < patterns.length; id++) {
+            ids.put(patterns[id], id);
+        }
+
+        // an expression without any required literal gets an empty one, which is found on every line
+        List<String> automatonLiterals = new ArrayList<>(literalPatterns);
+        for (String regExp : supportedRegExps) {
+            automatonLiterals.add(RegExpAutomaton.requiredLiteral(regExp));
+        }
+        exceptionLiteral = automatonLiterals.size();
+        automatonLiterals.add(EXCEPTION_MARKER);
+        literalAutomaton = new AhoCorasick(automatonLiterals);
+        regExpAutomaton = new RegExpAutomaton(supportedRegExps);
+
+        fallbackRegExps = new Pattern[fallbackPatterns.size()];
+        for (int i = 0; i < fallbackRegExps.length; i++) {
+            fallbackRegExps[i] = Pattern.compile(".*(" + fallbackPatterns.get(i) + ").*");
+        }
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    String pattern(int id) {
+        return patterns[id];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern is not in the set
+     */
+    int id(String pattern) {
+        Integer id = ids.get(pattern);
+        if (id == null) {
+            throw new IllegalArgumentException("Pattern is not in the set: " + pattern);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Log read once from its source and kept for any number of passes over it. A log up to the memory threshold is kept
+ * in a byte array, a longer one is spooled into a temporary file and mapped into memory, so that the passes read the
+ * file through the page cache instead of the heap. The file is deleted on close.
+ * <p>
+ * Java can't unmap a file explicitly, a mapping lasts until its buffers are garbage collected, and so does the disk
+ * space of the deleted file. The spool drops its buffers on close, so the mappings outlive the scan of a log only until
+ * the next garbage collection. Only the logs over the memory threshold are mapped.
+ */
+final class LogSpool implements Closeable {
+
+    /** Largest region of the file mapped by one buffer. */
+    private static final int REGION_SIZE = 1 << 30;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer[] regions;
+
+    /** Size of all the regions but the last one. */
+    private final int regionSize;
+
+    private final long size;
+
+    /** Spool file, {@code null} if the log is kept in memory. */
+    private final Path file;
+
+    private LogSpool(ByteBuffer[] regions, int regionSize, long size, Path file) {
+        this.regions = regions;
+        this.regionSize = regionSize;
+        this.size = size;
+        this.file = file;
+    }
+
+    /**
+     * Reads the whole log.
+     *
+     * @param memoryThreshold longest log kept in memory
+     * @param directory directory of the spool file
+     */
+    static LogSpool read(InputStream log, long memoryThreshold, Path directory) throws IOException {
+        return read(log, memoryThreshold, directory, REGION_SIZE);
+    }
+
+    static LogSpool read(InputStream log, long memoryThreshold, Path directory, int regionSize) throws IOException {
+        int limit = (int) Math.min(memoryThreshold, Integer.MAX_VALUE - 8);
+        byte[] buffer = new byte[Math.min(limit + 1, BUFFER_SIZE)];
+        int length = 0;
+        int read;
+        // reads one byte over the threshold to find out whether the log fits
+        while (length <= limit && (read = log.read(buffer, length, buffer.length - length)) >= 0) {
+            length += read;
+            if (length == buffer.length && length <= limit) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, limit + 1L));
+            }
+        }
+        if (length <= limit) {
+            ByteBuffer[] regions = { ByteBuffer.wrap(buffer, 0, length).slice() };
+            return new LogSpool(regions, Integer.MAX_VALUE, length, null);
+        }
+
+        Path file = Files.createTempFile(directory, "log-", ".spool");
+        try (FileChannel channel = FileChannel
+                .open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer head = ByteBuffer.wrap(buffer, 0, length);
+            while (head.hasRemaining()) {
+                channel.write(head);
+            }
+            log.transferTo(Channels.newOutputStream(channel));
+            long size = channel.size();
+            List<ByteBuffer> regions = new ArrayList<>();
+            for (long position = 0; position < size; position += regionSize) {
+                long regionLength = Math.min(regionSize, size - position);
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, position, regionLength));
+            }
+            // the mapping stays valid after the channel is closed
+            return new LogSpool(regions.toArray(new ByteBuffer[0]), regionSize, size, file);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isSpooled() {
+        return file != null;
+    }
+
+    /**
+     * Opens a new pass over the whole log.
+     */
+    InputStream open() {
+        return open(0, size);
+    }
+
+    /**
+     * Opens a new pass over a part of the log.
+     *
+     * @param from position of the first byte
+     * @param to position after the last byte
+     */
+    InputStream open(long from, long to) {
+        if (from < 0 || from > to || to > size) {
+            throw new IndexOutOfBoundsException("Invalid range " + from + " - " + to + " of " + size + " bytes");
+        }
+        return new RegionsInputStream(from, to);
+    }
+
+    byte get(long position) {
+        return regions[(int) (position / regionSize)].get((int) (position % regionSize));
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(regions, null);
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Reads the regions one after another, each through its own view, so that the passes don't affect each other.
+     */
+    private class RegionsInputStream extends InputStream {
+
+        private int region;
+
+        /** Position after the last byte to read in the last region. */
+        private final int end;
+
+        private final int lastRegion;
+
+        private ByteBuffer current = ByteBuffer.allocate(0);
+
+        RegionsInputStream(long from, long to) {
+            region = (int) (from / regionSize);
+            lastRegion = from == to ? -1 : (int) ((to - 1) / regionSize);
+            end = from == to ? 0 : (int) ((to - 1) % regionSize) + 1;
+            if (from < to) {
+                current = view(region);
+                current.position((int) (from % regionSize));
+            }
+        }
+
+        @Override
+        public int read() {
+            return nextRegion() ? current.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextRegion()) {
+                return -1;
+            }
+            int read = Math.min(length, current.remaining());
+            current.get(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return current.remaining();
+        }
+
+        /**
+         * @return whether there is a byte left to read in the current region
+         */
+        private boolean nextRegion() {
+            while (!current.hasRemaining()) {
+                if (++region > lastRegion) {
+                    return false;
+                }
+                current = view(region);
+            }
+            return true;
+        }
+
+        private ByteBuffer view(int index) {
+            ByteBuffer view = regions[index].duplicate();
+            if (index == lastRegion) {
+                view.limit(end);
+            }
+            return view;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the lines around the first match of each pattern of a log, so that the lines explaining an error are kept even
+ * if they are far from the end of the log.
+ * <p>
+ * The preceding lines are kept in a ring of fixed-size line buffers, lines longer than {@link #MAX_LINE_LENGTH} bytes
+ * are cut. A snippet is started when a pattern is found and collects the following lines until it has all of them.
+ */
+final class MatchContext {
+
+    static final int MAX_LINE_LENGTH = 512;
+
+    private final int lines;
+
+    /** Ring of the last lines before the current one, the oldest at {@link #ringHead}. */
+    private final byte[][] ring;
+
+    private final int[] ringLengths;
+
+    private int ringHead;
+
+    private int ringSize;
+
+    private long lineNumber;
+
+    /** Patterns found on the current line. */
+    private final List<String> matchedPatterns = new ArrayList<>();
+
+    private final List<Snippet> snippets = new ArrayList<>();
+
+    /** Snippets still collecting the following lines. */
+    private final List<Snippet> collecting = new ArrayList<>();
+
+    /**
+     * @param lines number of lines kept before and after each match
+     */
+    MatchContext(int lines) {
+        this.lines = lines;
+        ring = new byte[lines][MAX_LINE_LENGTH];
+        ringLengths = new int[lines];
+    }
+
+    /**
+     * Records a pattern found on the current line, before the line is passed to {@link #line(byte[], int, int)}.
+     */
+    void matched(String pattern) {
+        matchedPatterns.add(pattern);
+    }
+
+    /**
+     * Whether patterns were found on the current line.
+     */
+    boolean hasPendingMatches() {
+        return !matchedPatterns.isEmpty();
+    }
+
+    /**
+     * Whether some snippets still need the following lines.
+     */
+    boolean isCollecting() {
+        return !collecting.isEmpty();
+    }
+
+    /**
+     * Passes the current UTF-8 encoded line, every line of the log has to be passed.
+     */
+    void line(byte[] bytes, int offset, int length) {
+        lineNumber++;
+        byte[] line = null;
+        for (Iterator<Snippet> snippet = collecting.iterator(); snippet.hasNext();) {
+            Snippet collected = snippet.next();
+            line = line == null ? copy(bytes, offset, length) : line;
+            collected.lines.add(line);
+            if (collected.lines.size() == collected.matchIndex + 1 + lines) {
+                snippet.remove();
+            }
+        }
+        if (!matchedPatterns.isEmpty()) {
+            line = line == null ? copy(bytes, offset, length) : line;
+            for (String pattern : matchedPatterns) {
+                Snippet snippet = new Snippet(pattern, lineNumber);
+                for (int i = 0; i < ringSize; i++) {
+                    int index = (ringHead + i) % lines;
+                    snippet.lines.add(Arrays.copyOf(ring[index], ringLengths[index]));
+                }
+                snippet.matchIndex = snippet.lines.size();
+                snippet.lines.add(line);
+                snippets.add(snippet);
+                if (lines > 0) {
+                    collecting.add(snippet);
+                }
+            }
+            matchedPatterns.clear();
+        }
+        remember(bytes, offset, length);
+    }
+
+    /**
+     * Passes a line before the first one of the scanned part of a log, it is not counted in the line numbers.
+     */
+    void precedingLine(byte[] line) {
+        remember(line, 0, line.length);
+    }
+
+    private void remember(byte[] bytes, int offset, int length) {
+        if (lines > 0) {
+            int index = (ringHead + ringSize) % lines;
+            if (ringSize == lines) {
+                ringHead = (ringHead + 1) % lines;
+            } else {
+                ringSize++;
+            }
+            ringLengths[index] = Math.min(length, MAX_LINE_LENGTH);
+            System.arraycopy(bytes, offset, ring[index], 0, ringLengths[index]);
+        }
+    }
+
+    /**
+     * Appends the snippets of the given patterns from the context of a following part of the log.
+     *
+     * @param linesBefore number of lines before the part, added to the line numbers of its snippets
+     */
+    void append(MatchContext part, Set<String> patterns, long linesBefore) {
+        for (Snippet snippet : part.snippets) {
+            if (patterns.contains(snippet.pattern)) {
+                Snippet appended = new Snippet(snippet.pattern, snippet.lineNumber + linesBefore);
+                appended.lines.addAll(snippet.lines);
+                appended.matchIndex = snippet.matchIndex;
+                snippets.add(appended);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return snippets.isEmpty();
+    }
+
+    private static byte[] copy(byte[] bytes, int offset, int length) {
+        return Arrays.copyOfRange(bytes, offset, offset + Math.min(length, MAX_LINE_LENGTH));
+    }
+
+    /**
+     * Returns the snippets in the order the patterns were found. Each starts with a header naming the pattern and the
+     * line it was found on, the lines are prefixed by their numbers and the matched one is marked by {@code >}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Snippet snippet : snippets) {
+            result.append("--- ").append(snippet.pattern).append(" (line ").append(snippet.lineNumber).append(")\n");
+            long number = snippet.lineNumber - snippet.matchIndex;
+            for (int i = 0; i < snippet.lines.size(); i++, number++) {
+                result.append(i == snippet.matchIndex ? "> " : "  ")
+                        .append(number)
+                        .append(": ")
+                        .append(new String(snippet.lines.get(i), StandardCharsets.UTF_8))
+                        .append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    private static final class Snippet {
+
+        final String pattern;
+
+        final long lineNumber;
+
+        final List<byte[]> lines = new ArrayList<>();
+
+        int matchIndex;
+
+        Snippet(String pattern, long lineNumber) {
+            this.pattern = pattern;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
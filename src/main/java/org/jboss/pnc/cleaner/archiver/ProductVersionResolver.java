@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.quarkus.cache.CacheResult;
+import org.jboss.pnc.client.ProductMilestoneClient;
+import org.jboss.pnc.client.ProductVersionClient;
+import org.jboss.pnc.client.RemoteResourceException;
+import org.jboss.pnc.dto.ProductMilestone;
+import org.jboss.pnc.dto.ProductVersion;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Resolves the product version, including its product, of a milestone. Many builds share a few milestones, so the
+ * versions are cached in the {@value #CACHE_NAME} cache, which is bounded and expires the entries after a while (see
+ * application.properties). Concurrent lookups of the same milestone wait for a single remote call and failed lookups
+ * are not cached.
+ */
+@ApplicationScoped
+public class ProductVersionResolver {
+
+    static final String CACHE_NAME = "milestone-product-version";
+
+    @Inject
+    ProductMilestoneClient productMilestoneClient;
+
+    @Inject
+    ProductVersionClient productVersionClient;
+
+    @CacheResult(cacheName = CACHE_NAME)
+    public ProductVersion getProductVersion(String productMilestoneID) throws RemoteResourceException {
+        ProductMilestone productMilestone = productMilestoneClient.getSpecific(productMilestoneID);
+        String productVersionID = productMilestone.getProductVersion().getId();
+        return productVersionClient.getSpecific(productVersionID);
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests a set of regular expressions against a line in a single pass, in time linear to the length of the line.
+ * <p>
+ * The expressions are compiled into one NFA, which is turned into a DFA lazily, one state at a time, as the lines are
+ * scanned. Only the subset of the {@link java.util.regex.Pattern} syntax used by the log patterns is supported: literal
+ * characters (optionally escaped with a backslash), {@code .} and {@code *} applied to a single character. Use
+ * {@link #isSupported(String)} to find out whether an expression can be compiled.
+ * <p>
+ * Each expression behaves as if it was wrapped as {@code .*(regex).*} and matched against the whole line, which is how
+ * {@link LogParser} used to match them, including the substring captured by the group.
+ * <p>
+ * The automaton is safe to share between threads. DFA states are immutable apart from the cached transitions, which
+ * any thread may fill in with an equal state.
+ */
+final class RegExpAutomaton {
+
+    /** Atom standing for {@code .}. */
+    private static final int ANY = -1;
+
+    /** Upper limit of cached DFA states, the automaton keeps working without caching once it is reached. */
+    private static final int MAX_CACHED_STATES = 10_000;
+
+    /** Class of characters not used in any expression as a literal. */
+    private static final int OTHER_CLASS = 0;
+
+    /** Class of line terminators, which {@code .} doesn't match. */
+    private static final int TERMINATOR_CLASS = 1;
+
+    private final int patternCount;
+
+    /** Atoms of all the expressions one after another, a character or {@link #ANY}. */
+    private final int[] atoms;
+
+    private final boolean[] starred;
+
+    /** Expression of each atom (and of the accepting position following the last atom). */
+    private final int[] patternOf;
+
+    /** Position of the first atom of each expression, the accepting position is the first atom of the next one. */
+    private final int[] patternStart;
+
+    private final int[] asciiClasses = new int[128];
+
+    private final char[] nonAsciiLiterals;
+
+    private final int[] nonAsciiClasses;
+
+    private final int classCount;
+
+    /** Class representatives, used when computing the transitions. */
+    private final int[] classChars;
+
+    private final Map<Key, State> states = new ConcurrentHashMap<>();
+
+    private final State startState;
+
+    RegExpAutomaton(List<String> regexes) {
+        patternCount = regexes.size();
+        patternStart = new int[patternCount + 1];
+        List<int[]> parsed = new ArrayList<>(patternCount);
+        int positions = 0;
+        for (int i = 0; i < patternCount; i++) {
+            int[] pattern = parse(regexes.get(i));
+            if (pattern == null) {
+                throw new IllegalArgumentException("Unsupported regular expression: " + regexes.get(i));
+            }
+            parsed.add(pattern);
+            patternStart[i] = positions;
+            positions += pattern.length / 2 + 1;
+        }
+        patternStart[patternCount] = positions;
+
+        atoms = new int[positions];
+        starred = new boolean[positions];
+        patternOf = new int[positions];
+        List<Character> nonAscii = new ArrayList<>();
+        // neither a surrogate nor a line terminator can be a literal, so they can represent the two shared classes
+        List<Integer> representatives = new ArrayList<>(List.of((int) '\uD800', (int) '\n'));
+        asciiClasses['\n'] = TERMINATOR_CLASS;
+        asciiClasses['\r'] = TERMINATOR_CLASS;
+        for (int i = 0; i < patternCount; i++) {
+            int[] pattern = parsed.get(i);
+            for (int a = 0; a <= pattern.length / 2; a++) {
+                int position = patternStart[i] + a;
+                patternOf[position] = i;
+                if (a == pattern.length / 2) {
+                    break;
+                }
+                int atom = pattern[2 * a];
+                atoms[position] = atom;
+                starred[position] = pattern[2 * a + 1] == 1;
+                if (atom != ANY && classOf((char) atom, nonAscii) == OTHER_CLASS) {
+                    if (atom < 128) {
+                        asciiClasses[atom] = representatives.size();
+                    } else {
+                        nonAscii.add((char) atom);
+                    }
+                    representatives.add(atom);
+                }
+            }
+        }
+        classCount = representatives.size();
+        classChars = representatives.stream().mapToInt(Integer::intValue).toArray();
+
+        nonAscii.sort(null);
+        nonAsciiLiterals = new char[nonAscii.size()];
+        nonAsciiClasses = new int[nonAscii.size()];
+        for (int i = 0; i < nonAscii.size(); i++) {
+            nonAsciiLiterals[i] = nonAscii.get(i);
+            nonAsciiClasses[i] = representatives.indexOf((int) nonAscii.get(i));
+        }
+
+        boolean[] start = new boolean[positions];
+        for (int i = 0; i < patternCount; i++) {
+            start[patternStart[i]] = true;
+        }
+        startState = intern(closure(start));
+    }
+
+    /**
+     * Checks whether the expression uses only the syntax supported by the automaton.
+     */
+    static boolean isSupported(String regex) {
+        return parse(regex) != null;
+    }
+
+    /**
+     * Finds the longest literal every line matching the expression has to contain.
+     *
+     * @return the literal, empty if the expression doesn't require any
+     */
+    static String requiredLiteral(String regex) {
+        int[] parsed = parse(regex);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unsupported regular expression: " + regex);
+        }
+        String longest = "";
+        StringBuilder current = new StringBuilder();
+        for (int a = 0; a <= parsed.length / 2; a++) {
+            if (a < parsed.length / 2 && parsed[2 * a] != ANY && parsed[2 * a + 1] == 0) {
+                current.append((char) parsed[2 * a]);
+            } else {
+                if (current.length() > longest.length()) {
+                    longest = current.toString();
+                }
+                current.setLength(0);
+            }
+        }
+        return longest;
+    }
+
+    int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Scans the line and marks every expression matching it.
+     *
+     * @param line scanned line
+     * @param found flags indexed by the expression position, set to {@code true} for each expression found
+     * @return number of expressions found in the line that were not marked before
+     */
+    int scan(CharSequence line, boolean[] found) {
+        State state = startState;
+        boolean[] lineFound = null;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            int charClass;
+            if (c < 128) {
+                charClass = asciiClasses[c];
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    i++;
+                }
+                charClass = classOf(c);
+            }
+            state = next(state, charClass);
+            if (state.accepting != null) {
+                if (lineFound == null) {
+                    lineFound = new boolean[patternCount];
+                }
+                for (int pattern : state.accepting) {
+                    lineFound[pattern] = true;
+                }
+            }
+        }
+        if (startState.accepting != null) {
+            if (lineFound == null) {
+                lineFound = new boolean[patternCount];
+            }
+            for (int pattern : startState.accepting) {
+                lineFound[pattern] = true;
+            }
+        }
+        // '.' doesn't match line terminators, so a line containing one can never be matched as a whole
+        if (lineFound == null || containsTerminator(line)) {
+            return 0;
+        }
+        int newlyFound = 0;
+        for (int i = 0; i < patternCount; i++) {
+            if (lineFound[i] && !found[i]) {
+                found[i] = true;
+                newlyFound++;
+            }
+        }
+        return newlyFound;
+    }
+
+    /**
+     * Returns the part of the line matched by the expression, the same one the group of {@code .*(regex).*} would
+     * capture: the match starting at the rightmost possible position, as long as possible.
+     *
+     * @param pattern position of the expression
+     * @param line line known to match the expression
+     * @return the matched part of the line, {@code null} if the line doesn't match
+     */
+    String capture(int pattern, CharSequence line) {
+        int first = patternStart[pattern];
+        int accept = patternStart[pattern + 1] - 1;
+
+        // the rightmost start is where a match of the reversed expression ends first when reading the line backwards
+        boolean[] current = new boolean[accept + 1];
+        int matchStart = -1;
+        for (int i = line.length(); i >= 0; i--) {
+            current[accept] = true;
+            reverseClosure(current, first, accept);
+            if (current[first]) {
+                matchStart = i;
+                break;
+            }
+            if (i == 0) {
+                break;
+            }
+            int width = i >= 2 && Character.isLowSurrogate(line.charAt(i - 1))
+                    && Character.isHighSurrogate(line.charAt(i - 2)) ? 2 : 1;
+            char c = line.charAt(i - width);
+            boolean[] next = new boolean[accept + 1];
+            for (int p = first + 1; p <= accept; p++) {
+                if (current[p] && matches(p - 1, c)) {
+                    next[p - 1] = true;
+                }
+            }
+            for (int p = first; p < accept; p++) {
+                if (current[p] && starred[p] && matches(p, c)) {
+                    next[p] = true;
+                }
+            }
+            current = next;
+            i -= width - 1;
+        }
+        if (matchStart < 0) {
+            return null;
+        }
+
+        // the longest match from that start
+        current = new boolean[accept + 1];
+        current[first] = true;
+        int matchEnd = -1;
+        for (int i = matchStart;; i++) {
+            forwardClosure(current, first, accept);
+            if (current[accept]) {
+                matchEnd = i;
+            }
+            if (i >= line.length()) {
+                break;
+            }
+            int width = Character.isHighSurrogate(line.charAt(i)) && i + 1 < line.length()
+                    && Character.isLowSurrogate(line.charAt(i + 1)) ? 2 : 1;
+            char c = line.charAt(i);
+            boolean[] next = new boolean[accept + 1];
+            boolean any = false;
+            for (int p = first; p < accept; p++) {
+                if (current[p] && matches(p, c)) {
+                    next[starred[p] ? p : p + 1] = true;
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+            current = next;
+            i += width - 1;
+        }
+        return line.subSequence(matchStart, matchEnd).toString();
+    }
+
+    private boolean matches(int position, char c) {
+        int atom = atoms[position];
+        if (atom == ANY) {
+            return !isTerminator(c);
+        }
+        return atom == c;
+    }
+
+    private void forwardClosure(boolean[] positions, int first, int accept) {
+        for (int p = first; p < accept; p++) {
+            if (positions[p] && starred[p]) {
+                positions[p + 1] = true;
+            }
+        }
+    }
+
+    private void reverseClosure(boolean[] positions, int first, int accept) {
+        for (int p = accept; p > first; p--) {
+            if (positions[p] && starred[p - 1]) {
+                positions[p - 1] = true;
+            }
+        }
+    }
+
+    private State next(State state, int charClass) {
+        State next = state.next[charClass];
+        if (next == null) {
+            boolean[] positions = new boolean[atoms.length];
+            char c = (char) classChars[charClass];
+            for (int position : state.positions) {
+                if (!isAccepting(position) && matches(position, c)) {
+                    positions[starred[position] ? position : position + 1] = true;
+                }
+            }
+            for (int i = 0; i < patternCount; i++) {
+                positions[patternStart[i]] = true;
+            }
+            next = intern(closure(positions));
+            if (states.size() < MAX_CACHED_STATES) {
+                state.next[charClass] = next;
+            }
+        }
+        return next;
+    }
+
+    private boolean isAccepting(int position) {
+        return patternStart[patternOf[position] + 1] - 1 == position;
+    }
+
+    private boolean[] closure(boolean[] positions) {
+        for (int position = 0; position < positions.length; position++) {
+            if (positions[position] && !isAccepting(position) && starred[position]) {
+                positions[position + 1] = true;
+            }
+        }
+        return positions;
+    }
+
+    private State intern(boolean[] positions) {
+        int count = 0;
+        for (boolean position : positions) {
+            if (position) {
+                count++;
+            }
+        }
+        int[] set = new int[count];
+        List<Integer> accepting = new ArrayList<>();
+        count = 0;
+        for (int position = 0; position < positions.length; position++) {
+            if (positions[position]) {
+                set[count++] = position;
+                if (isAccepting(position)) {
+                    accepting.add(patternOf[position]);
+                }
+            }
+        }
+        Key key = new Key(set);
+        State state = states.get(key);
+        if (state == null) {
+            state = new State(
+                    set,
+                    accepting.isEmpty() ? null : accepting.stream().mapToInt(Integer::intValue).toArray(),
+                    classCount);
+            if (states.size() < MAX_CACHED_STATES) {
+                State previous = states.putIfAbsent(key, state);
+                if (previous != null) {
+                    state = previous;
+                }
+            }
+        }
+        return state;
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(nonAsciiLiterals, c);
+        if (index >= 0) {
+            return nonAsciiClasses[index];
+        }
+        return isTerminator(c) ? TERMINATOR_CLASS : OTHER_CLASS;
+    }
+
+    private int classOf(char c, List<Character> nonAscii) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        return nonAscii.contains(c) ? -1 : OTHER_CLASS;
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean containsTerminator(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (isTerminator(line.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the expression into pairs of an atom and a flag whether the atom is repeated by {@code *}.
+     *
+     * @return the parsed atoms, {@code null} if the expression uses unsupported syntax
+     */
+    private static int[] parse(String regex) {
+        int[] parsed = new int[regex.length() * 2];
+        int count = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            int atom;
+            if (c == '\\') {
+                if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                atom = regex.charAt(++i);
+                if (Character.isSurrogate((char) atom) || isTerminator((char) atom)) {
+                    return null;
+                }
+            } else if (c == '.') {
+                atom = ANY;
+            } else if (c == '*') {
+                if (count == 0 || parsed[2 * count - 1] == 1) {
+                    return null;
+                }
+                parsed[2 * count - 1] = 1;
+                continue;
+            } else if ("+?|()[]{}^$".indexOf(c) >= 0 || Character.isSurrogate(c) || isTerminator(c)) {
+                return null;
+            } else {
+                atom = c;
+            }
+            parsed[2 * count] = atom;
+            parsed[2 * count + 1] = 0;
+            count++;
+        }
+        return Arrays.copyOf(parsed, 2 * count);
+    }
+
+    private static final class State {
+        final int[] positions;
+        final int[] accepting;
+        final State[] next;
+
+        State(int[] positions, int[] accepting, int classCount) {
+            this.positions = positions;
+            this.accepting = accepting;
+            this.next = new State[classCount];
+        }
+    }
+
+    private record Key(int[] positions) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key key && Arrays.equals(positions, key.positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(positions);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Passes items through a sequence of stages. Each stage runs a configured number of workers and the stages are
+ * connected by bounded queues, so a slow stage holds back the ones before it instead of piling up items in memory.
+ * <p>
+ * An item whose stage fails is logged, counted and dropped; the following stages don't see it. Each stage records a
+ * timer {@code <metricPrefix>.<stage>} with the count and duration of processed items and a counter
+ * {@code <metricPrefix>.<stage>.error.count}. A batch stage processes the items waiting in its queue together, up to
+ * the batch size, and records the batches instead; when a batch fails, its items are retried one by one, so that only
+ * the failing ones are dropped. An {@link Error} is not an item failure, it stops the pipeline: the remaining items
+ * are drained without being processed and the error is thrown by {@link #run(Iterable)}.
+ * <p>
+ * The executor has to be able to run the workers of all stages at the same time.
+ */
+final class StagedPipeline<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagedPipeline.class);
+
+    /** Marks the end of the items in a queue, every worker takes one and stops. */
+    private static final Object END = new Object();
+
+    private final Executor executor;
+
+    private final int queueCapacity;
+
+    private final MeterRegistry registry;
+
+    private final String metricPrefix;
+
+    private final Function<T, String> describe;
+
+    private final List<Stage<T>> stages = new ArrayList<>();
+
+    /**
+     * @param describe describes an item in error messages
+     */
+    StagedPipeline(
+            Executor executor,
+            int queueCapacity,
+            MeterRegistry registry,
+            String metricPrefix,
+            Function<T, String> describe) {
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.registry = registry;
+        this.metricPrefix = metricPrefix;
+        this.describe = describe;
+    }
+
+    StagedPipeline<T> stage(String name, int workers, Consumer<T> action) {
+        return batchStage(name, workers, 1, batch -> action.accept(batch.get(0)));
+    }
+
+    /**
+     * Adds a stage taking the items in batches. A worker doesn't wait for a batch to fill up, it takes the items
+     * already waiting, so the batches grow when the stage can't keep up with the previous one.
+     */
+    StagedPipeline<T> batchStage(String name, int workers, int batchSize, Consumer<List<T>> action) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs at least one worker");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs a positive batch size");
+        }
+        stages.add(
+                new Stage<>(
+                        name,
+                        workers,
+                        batchSize,
+                        action,
+                        registry.timer(metricPrefix + "." + name),
+                        registry.counter(metricPrefix + "." + name + ".error.count")));
+        return this;
+    }
+
+    /**
+     * Runs all the items through the stages and waits until the last stage is done with them. Items are taken from
+     * the iterable only as fast as the first stage accepts them. If the items can't be read to the end, the items
+     * already taken are done before the failure is thrown.
+     */
+    void run(Iterable<T> items) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        AtomicReference<Error> failure = new AtomicReference<>();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage<T> stage = stages.get(i);
+            BlockingQueue<Object> input = queues.get(i);
+            BlockingQueue<Object> output = i + 1 < stages.size() ? queues.get(i + 1) : null;
+            int nextWorkers = output == null ? 0 : stages.get(i + 1).workers;
+            AtomicInteger running = new AtomicInteger(stage.workers);
+            for (int w = 0; w < stage.workers; w++) {
+                workers.add(
+                        CompletableFuture.runAsync(
+                                () -> work(stage, input, output, nextWorkers, running, failure),
+                                executor));
+            }
+        }
+        Throwable failed = feed(items, queues.get(0), failure);
+        try {
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException ex) {
+            failed = suppress(failed, ex);
+        }
+        failed = suppress(failed, failure.get());
+        if (failed instanceof Error error) {
+            throw error;
+        }
+        if (failed != null) {
+            throw (RuntimeException) failed;
+        }
+    }
+
+    /**
+     * Puts the items into the queue of the first stage, followed by an END for each of its workers.
+     *
+     * @return the failure of reading the items, {@code null} if all of them were fed
+     */
+    private Throwable feed(Iterable<T> items, BlockingQueue<Object> first, AtomicReference<Error> failure) {
+        try {
+            for (T item : items) {
+                if (failure.get() != null) {
+                    break;
+                }
+                first.put(item);
+            }
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new RuntimeException("Interrupted while feeding the pipeline", ex);
+        } catch (RuntimeException | Error ex) {
+            return ex;
+        } finally {
+            // let the workers finish even if the items can't be read to the end
+            for (int w = 0; w < stages.get(0).workers; w++) {
+                putUninterruptibly(first, END);
+            }
+        }
+    }
+
+    private static Throwable suppress(Throwable failed, Throwable other) {
+        if (failed == null) {
+            return other;
+        }
+        if (other != null && other != failed) {
+            failed.addSuppressed(other);
+        }
+        return failed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(
+            Stage<T> stage,
+            BlockingQueue<Object> input,
+            BlockingQueue<Object> output,
+            int nextWorkers,
+            AtomicInteger running,
+            AtomicReference<Error> failure) {
+        try {
+            List<T> batch = new ArrayList<>(stage.batchSize);
+            boolean ended = false;
+            while (!ended) {
+                Object taken = input.take();
+                // each worker takes exactly one END, so the batch stops at the first one
+                while (taken != END) {
+                    batch.add((T) taken);
+                    if (batch.size() == stage.batchSize || (taken = input.poll()) == null) {
+                        break;
+                    }
+                }
+                ended = taken == END;
+                // after an error the items are only drained, so that the stages before don't block on a full queue
+                if (batch.isEmpty() || failure.get() != null) {
+                    batch.clear();
+                    continue;
+                }
+                List<T> processed;
+                try {
+                    processed = process(stage, batch);
+                } catch (Error ex) {
+                    stage.errors.increment();
+                    failure.compareAndSet(null, ex);
+                    batch.clear();
+                    continue;
+                }
+                if (output != null) {
+                    for (T item : processed) {
+                        output.put(item);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted in stage " + stage.name, ex);
+        } finally {
+            // the last worker of a stage to finish ends the next stage, however it finished
+            if (running.decrementAndGet() == 0 && output != null) {
+                for (int w = 0; w < nextWorkers; w++) {
+                    putUninterruptibly(output, END);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the action on the batch. When a batch of more items fails, the items are retried one by one.
+     *
+     * @return the items processed successfully
+     */
+    private List<T> process(Stage<T> stage, List<T> batch) {
+        try {
+            stage.timer.record(() -> stage.action.accept(batch));
+            return batch;
+        } catch (Exception ex) {
+            // checked exceptions thrown sneakily by the action are item failures too, errors are not
+            if (batch.size() == 1) {
+                stage.errors.increment();
+                logger.error("Stage " + stage.name + " failed for " + describe(batch), ex);
+                return List.of();
+            }
+            logger.warn("Stage " + stage.name + " failed for a batch of " + batch.size() + " items, retrying them", ex);
+        }
+        List<T> processed = new ArrayList<>(batch.size());
+        for (T item : batch) {
+            processed.addAll(process(stage, Collections.singletonList(item)));
+        }
+        return processed;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Object> queue, Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String describe(List<T> batch) {
+        try {
+            return batch.stream().map(describe).collect(Collectors.joining(", "));
+        } catch (RuntimeException ex) {
+            return batch.size() + " items";
+        }
+    }
+
+    private record Stage<T>(
+            String name,
+            int workers,
+            int batchSize,
+            Consumer<List<T>> action,
+            Timer timer,
+            Counter errors) {
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.jboss.pnc.cleaner.orchApi.PrefetchingPageIterator.PageLoader;
+import org.jboss.pnc.dto.Build;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Loads pages of builds ordered by the submit time. Each page is requested from the submit time of the last build of
+ * the previous page rather than by its index, because the builds archived in the meantime drop out of the result and
+ * would shift the following pages.
+ * <p>
+ * Builds submitted at the same time may not fit into one page, so a page starts at that time, not after it, and skips
+ * the builds already seen at it. The query is asked for that many more builds, so that a full page still means there
+ * may be more.
+ */
+final class SubmitTimePageLoader implements PageLoader<Build> {
+
+    @FunctionalInterface
+    interface Query {
+
+        /**
+         * @param submittedFrom the earliest submit time of the builds, {@code null} for all builds
+         * @param pageSize maximal number of builds to load
+         * @return the builds ordered by the submit time
+         */
+        List<Build> load(Instant submittedFrom, int pageSize);
+    }
+
+    private final Query query;
+
+    /** Submit time of the last build seen, {@code null} before the first page. */
+    private Instant submitTime;
+
+    /** Builds seen with the last submit time. */
+    private final Set<String> seenIds = new HashSet<>();
+
+    SubmitTimePageLoader(Query query) {
+        this.query = query;
+    }
+
+    @Override
+    public List<Build> load(List<Build> previous, int pageSize) {
+        if (previous != null) {
+            for (Build build : previous) {
+                if (!Objects.equals(build.getSubmitTime(), submitTime)) {
+                    submitTime = build.getSubmitTime();
+                    seenIds.clear();
+                }
+                seenIds.add(build.getId());
+            }
+        }
+        List<Build> builds = query.load(submitTime, pageSize + seenIds.size());
+        List<Build> page = new ArrayList<>(pageSize);
+        for (Build build : builds) {
+            if (page.size() < pageSize && !seenIds.contains(build.getId())) {
+                page.add(build);
+            }
+        }
+        return page;
+    }
+}
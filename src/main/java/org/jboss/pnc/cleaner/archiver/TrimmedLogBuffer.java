@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the last lines of a log whose total length, not counting line separators, fits into the limit.
+ * <p>
+ * The characters are stored in a ring buffer, so adding a line and evicting the oldest one don't allocate. The buffer
+ * grows on demand up to the limit, so short logs don't reserve the whole limit.
+ */
+final class TrimmedLogBuffer {
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    private final long limit;
+
+    private char[] chars = new char[0];
+
+    /** Index of the first character of the oldest line. */
+    private int head;
+
+    private int size;
+
+    /** Ring of line lengths, the oldest line is at {@link #lineHead}. */
+    private int[] lineLengths = new int[16];
+
+    private int lineHead;
+
+    private int lineCount;
+
+    private CharsetDecoder decoder;
+
+    private char[] decoded;
+
+    TrimmedLogBuffer(long limit) {
+        this.limit = Math.min(limit, Integer.MAX_VALUE - 8);
+    }
+
+    void add(String line) {
+        int length = line.length();
+        if (makeRoom(length)) {
+            if (length > 0) {
+                int tail = (head + size) % chars.length;
+                int firstPart = Math.min(length, chars.length - tail);
+                line.getChars(0, firstPart, chars, tail);
+                line.getChars(firstPart, length, chars, 0);
+            }
+            addLine(length);
+        }
+    }
+
+    /**
+     * Adds UTF-8 encoded line, malformed input is replaced the same way as by
+     * {@link String#String(byte[], int, int, java.nio.charset.Charset)}.
+     */
+    void add(byte[] bytes, int offset, int length) {
+        // each character takes at most three bytes, so such line can't fit
+        if (length / 3 > limit) {
+            clear();
+            return;
+        }
+        if (decoded == null || decoded.length < length) {
+            decoded = new char[Math.max(length, INITIAL_CAPACITY)];
+        }
+        int decodedLength = 0;
+        while (decodedLength < length && bytes[offset + decodedLength] >= 0) {
+            decoded[decodedLength] = (char) bytes[offset + decodedLength];
+            decodedLength++;
+        }
+        if (decodedLength < length) {
+            if (decoder == null) {
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            CharBuffer out = CharBuffer.wrap(decoded, decodedLength, decoded.length - decodedLength);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, offset + decodedLength, length - decodedLength), out, true);
+            decoder.flush(out);
+            decodedLength = out.position();
+        }
+        add(decoded, decodedLength);
+    }
+
+    private void add(char[] line, int length) {
+        if (makeRoom(length)) {
+            if (length > 0) {
+                int tail = (head + size) % chars.length;
+                int firstPart = Math.min(length, chars.length - tail);
+                System.arraycopy(line, 0, chars, tail, firstPart);
+                System.arraycopy(line, firstPart, chars, 0, length - firstPart);
+            }
+            addLine(length);
+        }
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+        lineHead = 0;
+        lineCount = 0;
+    }
+
+    /**
+     * Evicts the oldest lines so that a line of the given length fits and grows the buffer if needed.
+     *
+     * @return false if the line is longer than the limit, in which case the buffer is left empty
+     */
+    private boolean makeRoom(int length) {
+        if (length > limit) {
+            clear();
+            return false;
+        }
+        while (size + length > limit) {
+            int evicted = lineLengths[lineHead];
+            head = chars.length == 0 ? 0 : (head + evicted) % chars.length;
+            size -= evicted;
+            lineHead = (lineHead + 1) % lineLengths.length;
+            lineCount--;
+        }
+        if (chars.length < size + length) {
+            long capacity = Math.max(chars.length * 2L, INITIAL_CAPACITY);
+            capacity = Math.min(limit, Math.max(capacity, size + length));
+            char[] grown = new char[(int) capacity];
+            copyTo(grown, 0, head, size);
+            chars = grown;
+            head = 0;
+        }
+        return true;
+    }
+
+    private void addLine(int length) {
+        if (lineCount == lineLengths.length) {
+            int[] grown = new int[lineLengths.length * 2];
+            int firstPart = lineLengths.length - lineHead;
+            System.arraycopy(lineLengths, lineHead, grown, 0, firstPart);
+            System.arraycopy(lineLengths, 0, grown, firstPart, lineHead);
+            lineLengths = grown;
+            lineHead = 0;
+        }
+        lineLengths[(lineHead + lineCount) % lineLengths.length] = length;
+        lineCount++;
+        size += length;
+    }
+
+    private void copyTo(char[] target, int targetOffset, int from, int length) {
+        if (length == 0) {
+            return;
+        }
+        int firstPart = Math.min(length, chars.length - from);
+        System.arraycopy(chars, from, target, targetOffset, firstPart);
+        System.arraycopy(chars, 0, target, targetOffset + firstPart, length - firstPart);
+    }
+
+    /**
+     * Returns the length of the kept lines joined by new lines.
+     */
+    int length() {
+        return lineCount == 0 ? 0 : size + lineCount - 1;
+    }
+
+    /**
+     * Reads the kept lines joined by new lines straight from the buffer, without copying them into a string. The
+     * buffer must not change while it is being read.
+     */
+    Reader reader() {
+        return new Reader() {
+            /** Index of the line being read, counted from the oldest one. */
+            private int line;
+
+            /** Index of the first character of the line being read. */
+            private int from = head;
+
+            /** Number of characters of the line already read. */
+            private int lineOffset;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                int read = 0;
+                while (read < length && line < lineCount) {
+                    int lineLength = lineLengths[(lineHead + line) % lineLengths.length];
+                    if (lineOffset == lineLength) {
+                        line++;
+                        if (line < lineCount) {
+                            buffer[offset + read++] = '\n';
+                            from = chars.length == 0 ? 0 : (from + lineLength) % chars.length;
+                            lineOffset = 0;
+                        }
+                        continue;
+                    }
+                    int count = Math.min(length - read, lineLength - lineOffset);
+                    copyTo(buffer, offset + read, (from + lineOffset) % chars.length, count);
+                    lineOffset += count;
+                    read += count;
+                }
+                return read == 0 && length > 0 ? -1 : read;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Returns the kept lines joined by new lines.
+     */
+    @Override
+    public String toString() {
+        if (lineCount == 0) {
+            return "";
+        }
+        char[] result = new char[size + lineCount - 1];
+        int position = 0;
+        int from = head;
+        for (int i = 0; i < lineCount; i++) {
+            int length = lineLengths[(lineHead + i) % lineLengths.length];
+            if (i > 0) {
+                result[position++] = '\n';
+            }
+            copyTo(result, position, from, length);
+            position += length;
+            from = chars.length == 0 ? 0 : (from + length) % chars.length;
+        }
+        return new String(result);
+    }
+}
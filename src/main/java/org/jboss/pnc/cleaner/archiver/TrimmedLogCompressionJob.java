@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.largeobject.LargeObjectManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Moves the {@link ArchivedLog trimmed logs} of archived builds stored as large objects into the compressed
+ * {@code bytea} column, so that the logs archived before {@code buildArchiver.compressLogs} was enabled take less space
+ * too. The logs are migrated in batches, each in its own transaction, and the large objects are unlinked.
+ * <p>
+ * The sizes of the migrated logs before and after compression are recorded by the summaries
+ * {@code <className>.log.size} and {@code <className>.log.compressed.size} (bytes).
+ */
+@ApplicationScoped
+public class TrimmedLogCompressionJob {
+    private final Logger logger = LoggerFactory.getLogger(TrimmedLogCompressionJob.class);
+    private static final String className = TrimmedLogCompressionJob.class.getName();
+
+    private static final String SELECT = "SELECT hash, content FROM _archived_logs"
+            + " WHERE hash > ? AND content IS NOT NULL ORDER BY hash LIMIT ?";
+
+    private static final String UPDATE = "UPDATE _archived_logs SET content_gz = ?, content = NULL WHERE hash = ?";
+
+    @Inject
+    AgroalDataSource dataSource;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    TrimmedLogCompressionJob self;
+
+    @ConfigProperty(name = "buildArchiver.logCompression.batchSize", defaultValue = "100")
+    int batchSize;
+
+    @Timed
+    @Scheduled(cron = "{buildArchiver.logCompression.cron}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void compressStoredLogs() {
+        logger.info("Compressing stored trimmed logs ...");
+        long start = System.currentTimeMillis();
+        Progress progress = new Progress();
+        String lastHash = "";
+        while ((lastHash = self.compressBatch(lastHash, progress)) != null) {
+            logger.debug("Compressed trimmed logs up to {}", lastHash);
+        }
+        logger.info(
+                "Compressed {} trimmed logs from {} to {} bytes in {} ms.",
+                progress.logs,
+                progress.size,
+                progress.compressedSize,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Compresses the next batch of logs.
+     *
+     * @return hash of the last compressed log, {@code null} if there was none left
+     */
+    @Transactional
+    public String compressBatch(String afterHash, Progress progress) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement select = connection.prepareStatement(SELECT);
+                PreparedStatement update = connection.prepareStatement(UPDATE)) {
+            LargeObjectManager largeObjects = connection.unwrap(PGConnection.class).getLargeObjectAPI();
+            select.setString(1, afterHash);
+            select.setInt(2, batchSize);
+            String lastHash = null;
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    lastHash = rows.getString(1);
+                    update.setBytes(1, compress(rows, 2, largeObjects, progress));
+                    update.setString(2, lastHash);
+                    update.addBatch();
+                }
+            }
+            if (lastHash != null) {
+                update.executeBatch();
+            }
+            return lastHash;
+        } catch (SQLException | IOException ex) {
+            registry.counter(className + ".error.count").increment();
+            throw new RuntimeException("Failed to compress trimmed logs after " + afterHash, ex);
+        }
+    }
+
+    private byte[] compress(ResultSet rows, int column, LargeObjectManager largeObjects, Progress progress)
+            throws SQLException, IOException {
+        long oid = rows.getLong(column);
+        if (rows.wasNull()) {
+            return null;
+        }
+        Clob log = rows.getClob(column);
+        long size = log.length();
+        byte[] compressed;
+        try (Reader reader = log.getCharacterStream()) {
+            compressed = LogCompression.compress(reader);
+        }
+        largeObjects.unlink(oid);
+
+        registry.summary(className + ".log.size").record(size);
+        registry.summary(className + ".log.compressed.size").record(compressed.length);
+        progress.logs++;
+        progress.size += size;
+        progress.compressedSize += compressed.length;
+        return compressed;
+    }
+
+    static class Progress {
+        long logs;
+        long size;
+        long compressedSize;
+    }
+}
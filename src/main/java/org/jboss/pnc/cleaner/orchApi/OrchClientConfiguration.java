@@ -27,6 +27,7 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
 import java.io.IOException;
+import java.time.Duration;
 
 /**
  * Configuration for the Orchestrator client configurable using properties
@@ -50,6 +51,15 @@ public class OrchClientConfiguration {
     @ConfigProperty(name = "orch.pageSize", defaultValue = "50")
     protected Integer pageSize;
 
+    @ConfigProperty(name = "orch.minPageSize", defaultValue = "10")
+    protected Integer minPageSize;
+
+    @ConfigProperty(name = "orch.maxPageSize", defaultValue = "500")
+    protected Integer maxPageSize;
+
+    @ConfigProperty(name = "orch.pageLatencyTargetMillis", defaultValue = "2000")
+    protected Long pageLatencyTargetMillis;
+
     @Inject
     PNCClientAuth pncClientAuth;
 
@@ -57,6 +67,10 @@ public class OrchClientConfiguration {
     PNCClientAuth.ClientAuthType clientAuthType;
 
     public Configuration getConfiguration(boolean authenticated) {
+        return getConfiguration(authenticated, pageSize);
+    }
+
+    public Configuration getConfiguration(boolean authenticated, int pageSize) {
         Configuration.ConfigurationBuilder configurationBuilder = Configuration.builder()
                 .addDefaultMdcToHeadersMappings();
 
@@ -90,4 +104,15 @@ public class OrchClientConfiguration {
     public Configuration getConfiguration() {
         return getConfiguration(false);
     }
+
+    /**
+     * Creates a tuner starting at the configured page size and adjusting it within the configured limits.
+     */
+    public PageSizeTuner createPageSizeTuner() {
+        return new PageSizeTuner(
+                pageSize,
+                minPageSize,
+                maxPageSize,
+                Duration.ofMillis(pageLatencyTargetMillis));
+    }
 }
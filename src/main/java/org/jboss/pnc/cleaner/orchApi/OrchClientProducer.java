@@ -42,6 +42,13 @@ public class OrchClientProducer {
         return new BuildClient(orchClientConfiguration.getConfiguration());
     }
 
+    /**
+     * Creates a client loading the collections by pages of the given size. The caller has to close the client.
+     */
+    public BuildClient getBuildClient(int pageSize) {
+        return new BuildClient(orchClientConfiguration.getConfiguration(false, pageSize));
+    }
+
     public BuildClient getAuthenticatedBuildClient() {
         return new BuildClient(orchClientConfiguration.getConfiguration(true));
     }
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.orchApi;
+
+import java.time.Duration;
+
+/**
+ * Adjusts the size of requested pages to the measured response latency. A page loaded in more than the target latency
+ * halves the page size, a full page loaded in less than half of it doubles the page size, always within the limits.
+ * The tuner keeps its state between queries, so it can be shared by the queries of one job.
+ */
+public class PageSizeTuner {
+
+    private final int minPageSize;
+
+    private final int maxPageSize;
+
+    private final Duration targetLatency;
+
+    private int pageSize;
+
+    public PageSizeTuner(int initialPageSize, int minPageSize, int maxPageSize, Duration targetLatency) {
+        if (minPageSize < 1 || minPageSize > maxPageSize) {
+            throw new IllegalArgumentException("Invalid page size limits " + minPageSize + " - " + maxPageSize);
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.targetLatency = targetLatency;
+        this.pageSize = Math.max(minPageSize, Math.min(maxPageSize, initialPageSize));
+    }
+
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Records a loaded page.
+     *
+     * @param requested size of the requested page
+     * @param loaded number of items returned
+     * @param latency time it took to load the page
+     */
+    public synchronized void record(int requested, int loaded, Duration latency) {
+        if (latency.compareTo(targetLatency) > 0) {
+            pageSize = Math.max(minPageSize, Math.min(pageSize, requested / 2));
+        } else if (loaded >= requested && latency.multipliedBy(2).compareTo(targetLatency) < 0) {
+            pageSize = Math.min(maxPageSize, Math.max(pageSize, requested * 2));
+        }
+    }
+}
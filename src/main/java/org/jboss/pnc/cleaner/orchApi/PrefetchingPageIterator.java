@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.orchApi;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Iterates over paged results, loading the next page in the background while the current one is consumed. The size of
+ * each requested page comes from a {@link PageSizeTuner}, which is told how long every page took to load.
+ * <p>
+ * Pages are requested with the previous page at hand, so the loader can ask for the items after the last one seen
+ * instead of using a page index. A page shorter than requested is the last one.
+ */
+public class PrefetchingPageIterator<T> implements Iterator<T> {
+
+    @FunctionalInterface
+    public interface PageLoader<T> {
+
+        /**
+         * @param previous previous page, {@code null} when loading the first page
+         * @param pageSize maximal number of items to load
+         * @return the page
+         */
+        List<T> load(List<T> previous, int pageSize);
+    }
+
+    private final PageLoader<T> loader;
+
+    private final Executor executor;
+
+    private final PageSizeTuner tuner;
+
+    private Iterator<T> current = Collections.emptyIterator();
+
+    /** Page being loaded, {@code null} after the last page. */
+    private PendingPage<T> next;
+
+    public PrefetchingPageIterator(PageLoader<T> loader, Executor executor, PageSizeTuner tuner) {
+        this.loader = loader;
+        this.executor = executor;
+        this.tuner = tuner;
+        next = load(null);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext() && next != null) {
+            List<T> page;
+            try {
+                page = next.page.join();
+            } catch (CompletionException ex) {
+                next = null;
+                throw (ex.getCause() instanceof RuntimeException cause) ? cause : ex;
+            }
+            next = page.size() < next.size ? null : load(page);
+            current = page.iterator();
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private PendingPage<T> load(List<T> previous) {
+        int size = tuner.getPageSize();
+        CompletableFuture<List<T>> page = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            List<T> loaded = loader.load(previous, size);
+            tuner.record(size, loaded.size(), Duration.ofNanos(System.nanoTime() - start));
+            return loaded;
+        }, executor);
+        return new PendingPage<>(page, size);
+    }
+
+    private record PendingPage<T>(CompletableFuture<List<T>> page, int size) {
+    }
+}
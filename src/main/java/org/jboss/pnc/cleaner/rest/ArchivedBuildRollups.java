@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.rest;
+
+import io.micrometer.core.annotation.Timed;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollup;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollupQuery;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollupQuery.Granularity;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Numbers and durations of archived builds per period, status, error category and build type.
+ */
+@Path("/archive/rollups")
+public class ArchivedBuildRollups {
+
+    @Inject
+    ArchivedBuildRollupQuery rollupQuery;
+
+    /**
+     * @param from first submit day (UTC) included, e.g. {@code 2024-01-01}
+     * @param to first submit day (UTC) not included
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Timed
+    public List<ArchivedBuildRollup> getRollups(
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("granularity") @DefaultValue("MONTH") Granularity granularity,
+            @QueryParam("status") String status,
+            @QueryParam("errorGroup") String errorGroup,
+            @QueryParam("buildType") String buildType) {
+        return rollupQuery.query(parse("from", from), parse("to", to), granularity, status, errorGroup, buildType);
+    }
+
+    private static LocalDate parse(String name, String date) {
+        if (date == null) {
+            throw new BadRequestException("Missing query parameter " + name);
+        }
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException ex) {
+            throw new BadRequestException("Invalid date " + date + " of query parameter " + name);
+        }
+    }
+}
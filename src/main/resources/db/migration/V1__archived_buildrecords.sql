@@ -0,0 +1,40 @@
+-- Archived builds as they were stored before the schema was managed here. Existing databases are baselined at this
+-- version, so the table is created only in new databases.
+CREATE TABLE IF NOT EXISTS _archived_buildrecords (
+    buildrecord_id bigint NOT NULL,
+    submittime timestamp(6) with time zone,
+    starttime timestamp(6) with time zone,
+    endtime timestamp(6) with time zone,
+    submit_year integer,
+    submit_month integer,
+    submit_quarter integer NOT NULL,
+    status varchar(255),
+    buildtype varchar(100),
+    executionrootname varchar(255),
+    executionrootversion varchar(100),
+    user_id bigint,
+    username varchar(50),
+    temporarybuild boolean,
+    autoalign boolean,
+    categorized_error_msg varchar(255),
+    categorized_error_group varchar(255),
+    brewpullactive boolean,
+    buildconfiguration_id bigint,
+    buildconfiguration_rev integer,
+    buildconfiguration_name varchar(255),
+    buildenvironment_id bigint,
+    project_id bigint,
+    project_name varchar(255),
+    buildconfigsetrecord_id bigint,
+    product_id bigint,
+    product_name varchar(255),
+    productversion_id bigint,
+    product_version varchar(50),
+    productmilestone_id bigint,
+    productmilestone_version varchar(50),
+    buildcontentid varchar(50),
+    trimmed_buildlog oid,
+    trimmed_repourlog oid,
+    lastupdatetime timestamp(6) with time zone,
+    CONSTRAINT _archived_buildrecords_pkey PRIMARY KEY (buildrecord_id)
+);
@@ -0,0 +1,48 @@
+-- Trimmed logs stored once per content and referenced by the SHA-256 hash of their UTF-8 content. refs is the number
+-- of record columns referring to the log, the log is deleted when it drops to zero.
+CREATE TABLE _archived_logs (
+    hash varchar(64) NOT NULL,
+    content oid,
+    content_gz bytea,
+    refs bigint NOT NULL,
+    CONSTRAINT _archived_logs_pkey PRIMARY KEY (hash)
+);
+
+ALTER TABLE _archived_buildrecords
+    ADD COLUMN trimmed_buildlog_hash varchar(64),
+    ADD COLUMN trimmed_repourlog_hash varchar(64);
+
+-- the large objects hold the UTF-8 encoded logs, so their hash is the same as the one computed by the archiver
+UPDATE _archived_buildrecords
+SET trimmed_buildlog_hash = encode(sha256(lo_get(trimmed_buildlog)), 'hex')
+WHERE trimmed_buildlog IS NOT NULL;
+
+UPDATE _archived_buildrecords
+SET trimmed_repourlog_hash = encode(sha256(lo_get(trimmed_repourlog)), 'hex')
+WHERE trimmed_repourlog IS NOT NULL;
+
+INSERT INTO _archived_logs (hash, content, refs)
+SELECT DISTINCT ON (hash) hash, content, count(*) OVER (PARTITION BY hash)
+FROM (
+    SELECT trimmed_buildlog_hash AS hash, trimmed_buildlog AS content
+    FROM _archived_buildrecords
+    WHERE trimmed_buildlog IS NOT NULL
+    UNION ALL
+    SELECT trimmed_repourlog_hash, trimmed_repourlog
+    FROM _archived_buildrecords
+    WHERE trimmed_repourlog IS NOT NULL
+) logs
+ORDER BY hash, content;
+
+-- unlink the large objects of the duplicate logs
+SELECT lo_unlink(logs.content)
+FROM (
+    SELECT trimmed_buildlog AS content FROM _archived_buildrecords WHERE trimmed_buildlog IS NOT NULL
+    UNION
+    SELECT trimmed_repourlog FROM _archived_buildrecords WHERE trimmed_repourlog IS NOT NULL
+) logs
+WHERE NOT EXISTS (SELECT 1 FROM _archived_logs WHERE _archived_logs.content = logs.content);
+
+ALTER TABLE _archived_buildrecords
+    DROP COLUMN trimmed_buildlog,
+    DROP COLUMN trimmed_repourlog;
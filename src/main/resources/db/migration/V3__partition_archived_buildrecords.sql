@@ -0,0 +1,59 @@
+-- Partitions the archived builds by month of submittime, so that the reports and deletes of a time range read only
+-- its partitions. The partitions of the coming months are created by ArchivePartitionMaintainer.
+SET LOCAL TIME ZONE 'UTC';
+
+ALTER TABLE _archived_buildrecords RENAME TO _archived_buildrecords_unpartitioned;
+
+CREATE TABLE _archived_buildrecords (LIKE _archived_buildrecords_unpartitioned INCLUDING DEFAULTS)
+    PARTITION BY RANGE (submittime);
+
+ALTER TABLE _archived_buildrecords ALTER COLUMN submittime SET NOT NULL;
+
+DO $$
+DECLARE
+    first_month date;
+    partition_month date;
+BEGIN
+    SELECT date_trunc('month', coalesce(min(submittime), now()))::date
+    INTO first_month
+    FROM _archived_buildrecords_unpartitioned;
+
+    -- builds archived without a submit time get the earliest time known about them below, their months get
+    -- partitions too, so they don't stay in the default partition
+    FOR partition_month IN
+        SELECT generate_series(first_month, date_trunc('month', now()) + interval '3 months', interval '1 month')::date
+        UNION
+        SELECT DISTINCT date_trunc('month', coalesce(starttime, endtime, lastupdatetime, 'epoch'))::date
+        FROM _archived_buildrecords_unpartitioned
+        WHERE submittime IS NULL
+    LOOP
+        EXECUTE format(
+            'CREATE TABLE %I PARTITION OF _archived_buildrecords FOR VALUES FROM (%L) TO (%L)',
+            '_archived_buildrecords_' || to_char(partition_month, 'YYYY_MM'),
+            partition_month,
+            (partition_month + interval '1 month')::date);
+    END LOOP;
+END
+$$;
+
+-- builds submitted outside of the created partitions
+CREATE TABLE _archived_buildrecords_default PARTITION OF _archived_buildrecords DEFAULT;
+
+-- the partition key can't be null, builds archived without a submit time get the earliest time known about them
+UPDATE _archived_buildrecords_unpartitioned
+SET submittime = coalesce(starttime, endtime, lastupdatetime, 'epoch')
+WHERE submittime IS NULL;
+
+INSERT INTO _archived_buildrecords SELECT * FROM _archived_buildrecords_unpartitioned;
+
+DROP TABLE _archived_buildrecords_unpartitioned;
+
+-- a unique key of a partitioned table has to include the partition key, so it can't keep a build from having rows
+-- with different submit times; ArchivedBuildRecordWriter deletes the previous row of a build archived again instead
+ALTER TABLE _archived_buildrecords
+    ADD CONSTRAINT _archived_buildrecords_pkey PRIMARY KEY (buildrecord_id, submittime);
+
+CREATE INDEX _archived_buildrecords_submittime_idx ON _archived_buildrecords USING brin (submittime);
+CREATE INDEX _archived_buildrecords_status_idx ON _archived_buildrecords (status);
+CREATE INDEX _archived_buildrecords_categorized_error_group_idx ON _archived_buildrecords (categorized_error_group);
+CREATE INDEX _archived_buildrecords_buildconfiguration_id_idx ON _archived_buildrecords (buildconfiguration_id);
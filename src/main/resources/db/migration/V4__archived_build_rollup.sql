@@ -0,0 +1,30 @@
+-- Numbers of archived builds and their durations per submit day (UTC), status, error group, error message and build
+-- type. The rollup is kept up to date by the writers of the archived builds in the transactions changing them
+-- (ArchivedBuildRollupDeltas), so reports don't need to scan them. Missing values are stored as empty strings, so
+-- that they can be part of the primary key.
+CREATE TABLE _archived_build_rollup (
+    day date NOT NULL,
+    status varchar(255) NOT NULL,
+    categorized_error_group varchar(255) NOT NULL,
+    categorized_error_msg varchar(255) NOT NULL,
+    buildtype varchar(100) NOT NULL,
+    builds bigint NOT NULL,
+    -- builds with both start and end time
+    timed_builds bigint NOT NULL,
+    duration_millis bigint NOT NULL,
+    CONSTRAINT _archived_build_rollup_pkey
+        PRIMARY KEY (day, status, categorized_error_group, categorized_error_msg, buildtype)
+);
+
+-- the durations are truncated to milliseconds like the writers do
+INSERT INTO _archived_build_rollup
+SELECT (submittime AT TIME ZONE 'UTC')::date,
+    coalesce(status, ''),
+    coalesce(categorized_error_group, ''),
+    coalesce(categorized_error_msg, ''),
+    coalesce(buildtype, ''),
+    count(*),
+    count(endtime - starttime),
+    coalesce(sum(floor(extract(epoch FROM endtime - starttime) * 1000)::bigint), 0)
+FROM _archived_buildrecords
+GROUP BY 1, 2, 3, 4, 5;
@@ -0,0 +1,11 @@
+-- Progress of the re-categorization of archived builds, one row per version of the categorization rules. A run
+-- continues after the last build it has committed, so an interrupted run resumes where it stopped.
+CREATE TABLE _recategorization_runs (
+    run varchar(100) NOT NULL,
+    last_buildrecord_id bigint NOT NULL,
+    processed bigint NOT NULL,
+    changed bigint NOT NULL,
+    finished boolean NOT NULL,
+    updatetime timestamp(6) with time zone NOT NULL,
+    CONSTRAINT _recategorization_runs_pkey PRIMARY KEY (run)
+);
@@ -0,0 +1,2 @@
+-- Lines around the first matches of the error patterns in the logs of the categorized builds.
+ALTER TABLE _archived_buildrecords ADD COLUMN match_context text;
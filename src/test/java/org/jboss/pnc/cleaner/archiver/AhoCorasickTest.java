@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AhoCorasickTest {
+
+    @Test
+    void testOverlappingLiterals() {
+        AhoCorasick automaton = new AhoCorasick(List.of("he", "she", "his", "hers", "No route to host"));
+        boolean[] found = new boolean[automaton.getLiteralCount()];
+
+        assertEquals(3, automaton.scan("ushers", found));
+        assertArrayEquals(new boolean[] { true, true, false, true, false }, found);
+
+        assertEquals(0, automaton.scan("ushers", found));
+        assertEquals(1, automaton.scan("Caused by: No route to host (Host unreachable)", found));
+        assertTrue(found[4]);
+    }
+
+    @Test
+    void testNonAsciiText() {
+        AhoCorasick automaton = new AhoCorasick(List.of("čeština", "日本", "😀!", "x"));
+        boolean[] found = new boolean[automaton.getLiteralCount()];
+
+        automaton.scan("Příliš žluťoučký kůň, čeština 😀!", found);
+        assertArrayEquals(new boolean[] { true, false, true, false }, found);
+
+        automaton.scan("日本語 \uD800x", found);
+        assertArrayEquals(new boolean[] { true, true, true, true }, found);
+    }
+
+    @Test
+    void testEmptyLiteral() {
+        AhoCorasick automaton = new AhoCorasick(List.of("", "x"));
+        boolean[] found = new boolean[automaton.getLiteralCount()];
+
+        assertEquals(1, automaton.scan("", found));
+        assertArrayEquals(new boolean[] { true, false }, found);
+    }
+
+    @Test
+    void testSameResultsAsContains() {
+        List<String> literals = Arrays.asList(BuildCategorizer.literalErrors);
+        AhoCorasick automaton = new AhoCorasick(literals);
+
+        for (String line : generateLog(20_000, 42)) {
+            boolean[] found = new boolean[literals.size()];
+            automaton.scan(line, found);
+            for (int i = 0; i < literals.size(); i++) {
+                assertEquals(line.contains(literals.get(i)), found[i], () -> "Mismatch on line: " + line);
+            }
+        }
+    }
+
+    /**
+     * Generates a Maven-like log sprinkled with fragments and full copies of the known error literals.
+     */
+    static List<String> generateLog(int lines, long seed) {
+        Random random = new Random(seed);
+        String[] fragments = {
+                "[INFO] Downloading from indy-mvn: http://indy.example.com/api/folo/track/build-A7RC57IR7KYAA/",
+                "[INFO] --- maven-compiler-plugin:3.8.1:compile (default-compile) @ commons-lang ---",
+                "[WARNING] The POM for org.apache.commons:commons-parent:pom:52 is invalid",
+                "Downloaded from indy: org/apache/maven/plugins/maven-surefire-plugin/2.22.2 (12 kB at 8.3 kB/s)",
+                "[INFO] Tests run: 42, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0.123 s", "Read timed ",
+                "No route to ", "Failed to ", "Connect to indy", "Could not ", "http://", "Status: 500 " };
+        String[] literals = BuildCategorizer.literalErrors;
+        List<String> log = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            StringBuilder line = new StringBuilder(fragments[random.nextInt(fragments.length)]);
+            if (random.nextInt(100) == 0) {
+                line.append(' ').append(literals[random.nextInt(literals.length)]);
+            }
+            if (random.nextBoolean()) {
+                line.append(' ').append(fragments[random.nextInt(fragments.length)]);
+            }
+            log.add(line.toString());
+        }
+        return log;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArchivePartitionMaintainerTest {
+
+    @Test
+    void testCreatePartition() {
+        assertEquals(
+                "CREATE TABLE IF NOT EXISTS _archived_buildrecords_2026_12 PARTITION OF _archived_buildrecords"
+                        + " FOR VALUES FROM ('2026-12-01 00:00:00+00') TO ('2027-01-01 00:00:00+00')",
+                ArchivePartitionMaintainer.createPartition(YearMonth.of(2026, 12)));
+    }
+
+    @Test
+    void testSelectDefaultRows() {
+        assertEquals(
+                "SELECT 1 FROM _archived_buildrecords_default WHERE submittime >= '2026-12-01 00:00:00+00'"
+                        + " AND submittime < '2027-01-01 00:00:00+00' LIMIT 1",
+                ArchivePartitionMaintainer.selectDefaultRows(YearMonth.of(2026, 12)));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollupDeltas.Delta;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollupDeltas.Key;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ArchivedBuildRollupDeltasTest {
+
+    private static final Instant SUBMITTED = Instant.parse("2024-04-16T23:40:05Z");
+
+    @Test
+    void testChangedRowsInOrder() {
+        ArchivedBuildRollupDeltas deltas = new ArchivedBuildRollupDeltas();
+        // a build re-categorized from ND to PSI and one archived again unchanged
+        deltas.change(SUBMITTED, null, null, "SYSTEM_ERROR", "ND", null, "MVN", -1);
+        deltas.change(SUBMITTED, null, null, "SYSTEM_ERROR", "PSI", "Network issues", "MVN", 1);
+        deltas.change(SUBMITTED, SUBMITTED, SUBMITTED.plusMillis(1500), "SUCCESS", null, null, "NPM", -1);
+        deltas.change(SUBMITTED, SUBMITTED, SUBMITTED.plusMillis(1500), "SUCCESS", null, null, "NPM", 1);
+        // a new build submitted a day earlier
+        deltas.change(
+                SUBMITTED.minusSeconds(86400),
+                SUBMITTED,
+                SUBMITTED.plusMillis(2500),
+                "FAILED",
+                null,
+                null,
+                null,
+                1);
+
+        List<Map.Entry<Key, Delta>> changed = deltas.changed();
+
+        assertEquals(
+                List.of(
+                        new Key(LocalDate.parse("2024-04-15"), "FAILED", "", "", ""),
+                        new Key(LocalDate.parse("2024-04-16"), "SYSTEM_ERROR", "ND", "", "MVN"),
+                        new Key(LocalDate.parse("2024-04-16"), "SYSTEM_ERROR", "PSI", "Network issues", "MVN")),
+                changed.stream().map(Map.Entry::getKey).toList());
+        assertDelta(1, 1, 2500, changed.get(0).getValue());
+        assertDelta(-1, 0, 0, changed.get(1).getValue());
+        assertDelta(1, 0, 0, changed.get(2).getValue());
+    }
+
+    @Test
+    void testUpsert() {
+        assertEquals(
+                "INSERT INTO _archived_build_rollup AS rollup VALUES (?, ?, ?, ?, ?, ?, ?, ?), (?, ?, ?, ?, ?, ?, ?, ?)"
+                        + " ON CONFLICT (day, status, categorized_error_group, categorized_error_msg, buildtype)"
+                        + " DO UPDATE SET builds = rollup.builds + EXCLUDED.builds,"
+                        + " timed_builds = rollup.timed_builds + EXCLUDED.timed_builds,"
+                        + " duration_millis = rollup.duration_millis + EXCLUDED.duration_millis",
+                ArchivedBuildRollupDeltas.upsert(2));
+    }
+
+    private static void assertDelta(long builds, long timedBuilds, long durationMillis, Delta delta) {
+        assertEquals(builds, delta.builds);
+        assertEquals(timedBuilds, delta.timedBuilds);
+        assertEquals(durationMillis, delta.durationMillis);
+    }
+}
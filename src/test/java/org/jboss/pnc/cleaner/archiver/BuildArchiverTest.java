@@ -17,10 +17,14 @@
  */
 package org.jboss.pnc.cleaner.archiver;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.http.Fault;
 import io.quarkus.test.junit.QuarkusMock;
 import io.quarkus.test.junit.QuarkusTest;
 import org.jboss.pnc.api.enums.AlignmentPreference;
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRollupQuery.Granularity;
 import org.jboss.pnc.cleaner.orchApi.OrchClientProducer;
+import org.jboss.pnc.client.BuildClient;
 import org.jboss.pnc.client.ProductMilestoneClient;
 import org.jboss.pnc.client.ProductVersionClient;
 import org.jboss.pnc.client.RemoteResourceException;
@@ -38,7 +42,9 @@ import org.jboss.pnc.enums.BuildProgress;
 import org.jboss.pnc.enums.BuildStatus;
 import org.jboss.pnc.enums.BuildType;
 import org.jboss.pnc.enums.SystemImageType;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
@@ -46,9 +52,20 @@ import jakarta.inject.Inject;
 import java.io.BufferedReader;
 import java.io.StringReader;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @QuarkusTest
 class BuildArchiverTest {
@@ -59,24 +76,50 @@ class BuildArchiverTest {
     @Inject
     BuildArchiver buildArchiver;
 
+    @Inject
+    ProductVersionResolver productVersionResolver;
+
+    @Inject
+    ArchivedBuildRollupQuery rollupQuery;
+
+    private static ProductMilestoneClient milestoneClient;
+
+    private final WireMockServer finalLogServer = new WireMockServer(options().port(8084));
+
     @BeforeAll
     public static void setup() throws RemoteResourceException {
         OrchClientProducer producer = Mockito.mock(OrchClientProducer.class);
         QuarkusMock.installMockForType(producer, OrchClientProducer.class);
 
-        ProductMilestoneClient milestoneClient = Mockito.mock(ProductMilestoneClient.class);
+        milestoneClient = Mockito.mock(ProductMilestoneClient.class);
         Mockito.when(milestoneClient.getSpecific(MILESTONE_ID)).thenReturn(prepareMilestone());
         Mockito.when(producer.getProductMilestoneClient()).thenReturn(milestoneClient);
 
         ProductVersionClient productVersionClient = Mockito.mock(ProductVersionClient.class);
         Mockito.when(productVersionClient.getSpecific(VERSION_ID)).thenReturn(prepareProductVersion());
         Mockito.when(producer.getProductVersionClient()).thenReturn(productVersionClient);
+
+        Mockito.when(producer.getAuthenticatedBuildClient()).thenReturn(Mockito.mock(BuildClient.class));
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        finalLogServer.start();
+    }
+
+    @AfterEach
+    public void afterEach() {
+        finalLogServer.stop();
     }
 
     private static Build prepareBuild() {
+        return prepareBuild(BUILD_ID, Instant.parse("2024-04-16T13:40:05.319Z"));
+    }
+
+    private static Build prepareBuild(String id, Instant submitTime) {
         return Build.builder()
-                .id(BUILD_ID)
-                .submitTime(Instant.parse("2024-04-16T13:40:05.319Z"))
+                .id(id)
+                .submitTime(submitTime)
                 .startTime(Instant.parse("2024-04-16T13:40:05.352Z"))
                 .endTime(Instant.parse("2024-04-16T13:45:51.462Z"))
                 .progress(BuildProgress.FINISHED)
@@ -195,6 +238,129 @@ class BuildArchiverTest {
         assertEquals("MVN-WRAPPED-NPM", archivedBuild.buildType);
     }
 
+    @Test
+    void testArchiveBuildRecordReplacesStoredOne() {
+        Build build = prepareBuild();
+        buildArchiver.archiveBuildRecord(
+                build,
+                prepareLog("[INFO] --- frontend-maven-plugin:4.9.10:revision (default) @ cleaner ---"),
+                prepareLog("Command is \"['java', '-DbrewPullActive=true']\""));
+        buildArchiver.archiveBuildRecord(build, prepareLog("[INFO] BUILD SUCCESS"), prepareLog(""));
+
+        ArchivedBuildRecord archivedBuild = ArchivedBuildRecord.findById(LongBase32IdConverter.toLong(BUILD_ID));
+
+        assertEquals(false, archivedBuild.brewPullActive);
+        assertEquals("MVN", archivedBuild.buildType);
+        assertEquals("[INFO] BUILD SUCCESS", archivedBuild.getTrimmedBuildLog());
+        // logs are referenced by the hash of their content
+        assertEquals(archivedBuild.trimmedAlignLogHash, LogDigest.sha256(new StringReader("")));
+    }
+
+    @Test
+    void testArchiveBuildRecordWithChangedSubmitTime() {
+        String buildId = "A7RC57IR7KYAE";
+        buildArchiver.archiveBuildRecord(
+                prepareBuild(buildId, Instant.parse("2024-04-16T13:40:05.319Z")),
+                prepareLog("[INFO] BUILD SUCCESS"),
+                prepareLog(""));
+        buildArchiver.archiveBuildRecord(
+                prepareBuild(buildId, Instant.parse("2024-05-02T09:10:00Z")),
+                prepareLog("[INFO] BUILD SUCCESS"),
+                prepareLog(""));
+
+        // the submit time is a part of the primary key, yet the build stays identified by its id alone
+        long id = LongBase32IdConverter.toLong(buildId);
+        assertEquals(1, ArchivedBuildRecord.count("buildRecordId", id));
+        ArchivedBuildRecord archivedBuild = ArchivedBuildRecord.findById(id);
+        assertEquals(Instant.parse("2024-05-02T09:10:00Z"), archivedBuild.submitTime);
+        assertEquals(5, archivedBuild.submitMonth);
+    }
+
+    @Test
+    void testRollupFollowsArchivedBuilds() {
+        Build build = prepareBuild("A7RC57IR7KYAB", Instant.parse("2023-02-10T08:00:00Z"));
+        buildArchiver.archiveBuildRecord(
+                build,
+                prepareLog("[INFO] --- frontend-maven-plugin:4.9.10:revision (default) @ cleaner ---"),
+                prepareLog(""));
+        buildArchiver.archiveBuildRecord(build, prepareLog("[INFO] BUILD SUCCESS"), prepareLog(""));
+
+        List<ArchivedBuildRollup> rollups = rollupQuery.query(
+                LocalDate.parse("2023-02-01"),
+                LocalDate.parse("2023-03-01"),
+                Granularity.MONTH,
+                null,
+                null,
+                null);
+
+        // the build archived again is counted only with its current build type
+        assertEquals(1, rollups.size());
+        ArchivedBuildRollup rollup = rollups.get(0);
+        assertEquals(LocalDate.parse("2023-02-01"), rollup.period());
+        assertEquals("SUCCESS", rollup.status());
+        assertEquals("MVN", rollup.buildType());
+        assertEquals(1, rollup.builds());
+        assertEquals(346110, rollup.averageDurationMillis());
+    }
+
+    @Test
+    void testArchiveBuildReadsBothLogs() {
+        String buildId = "A7RC57IR7KYAC";
+        finalLogServer.stubFor(
+                get(urlPathMatching(".*/" + buildId + "/build-log")).willReturn(
+                        aResponse().withStatus(200)
+                                .withBody("[INFO] --- frontend-maven-plugin:4.9.10:revision (default) ---\n")));
+        finalLogServer.stubFor(
+                get(urlPathMatching(".*/" + buildId + "/alignment-log")).willReturn(
+                        aResponse().withStatus(200)
+                                .withFixedDelay(200)
+                                .withBody("Command is \"['java', '-DbrewPullActive=true']\"\n")));
+
+        buildArchiver.archiveBuild(prepareBuild(buildId, Instant.parse("2024-04-16T13:40:05.319Z")));
+
+        ArchivedBuildRecord archivedBuild = ArchivedBuildRecord.findById(LongBase32IdConverter.toLong(buildId));
+        assertEquals("MVN-WRAPPED-NPM", archivedBuild.buildType);
+        assertEquals(true, archivedBuild.brewPullActive);
+    }
+
+    @Test
+    void testFailedBuildLogWaitsForAlignmentLog() {
+        String buildId = "A7RC57IR7KYAD";
+        finalLogServer.stubFor(
+                get(urlPathMatching(".*/" + buildId + "/build-log"))
+                        .willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+        finalLogServer.stubFor(
+                get(urlPathMatching(".*/" + buildId + "/alignment-log"))
+                        .willReturn(aResponse().withFixedDelay(200).withFault(Fault.CONNECTION_RESET_BY_PEER)));
+
+        RuntimeException ex = assertThrows(
+                RuntimeException.class,
+                () -> buildArchiver.archiveBuild(prepareBuild(buildId, Instant.parse("2024-04-16T13:40:05.319Z"))));
+
+        // the alignment log read was waited for, so its failure is reported along with the build log one
+        assertEquals(1, ex.getSuppressed().length);
+    }
+
+    @Test
+    void testProductVersionCached() throws Exception {
+        // a milestone no other test resolves, so that the cache starts empty
+        String milestoneId = "147370";
+        Mockito.when(milestoneClient.getSpecific(milestoneId)).thenReturn(prepareMilestone());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ProductVersion>> versions = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                versions.add(executor.submit(() -> productVersionResolver.getProductVersion(milestoneId)));
+            }
+            for (Future<ProductVersion> version : versions) {
+                assertEquals(VERSION_ID, version.get().getId());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Mockito.verify(milestoneClient, Mockito.times(1)).getSpecific(milestoneId);
+    }
+
     private LogParser prepareLog(String log) {
         LogParser logParser = BuildCategorizer.getLogParser(200);
         logParser.findMatches(new BufferedReader(new StringReader(log)));
@@ -17,10 +17,13 @@
  */
 package org.jboss.pnc.cleaner.archiver;
 
+import org.jboss.pnc.enums.BuildStatus;
 import org.junit.jupiter.api.Test;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup.PSI;
 import static org.junit.jupiter.api.Assertions.*;
@@ -45,4 +48,37 @@ class BuildCategorizerTest {
         assertEquals(PSI, detectedCategory.getCategory());
         assertEquals("Exception trying to GET https://paas.example.com/healthz/ready", detectedCategory.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAlignmentLogPatternsCoverCategorization() {
+        List<String> lines = new ArrayList<>(List.of(BuildCategorizer.literalErrors));
+        for (String regExp : BuildCategorizer.regExpErrors) {
+            lines.add(regExp.replace(".*", "example"));
+        }
+        lines.add("");
+        LogParser buildLogParser = BuildCategorizer.getBuildLogParser(BuildStatus.SYSTEM_ERROR, 0);
+        String buildLog = BuildCategorizer.REPOUR_COMPLETED_WITH_SYSTEM_ERROR;
+        buildLogParser.findMatches(new BufferedReader(new StringReader(buildLog)));
+        // every alignment log pattern the categorization reads is guarded by at most one other pattern
+        for (String first : lines) {
+            for (String second : lines) {
+                LogParser alignmentLogParser = BuildCategorizer.getAlignmentLogParser(BuildStatus.SYSTEM_ERROR, 0);
+                alignmentLogParser.findMatches(new BufferedReader(new StringReader(first + "\n" + second)));
+                assertNotNull(BuildCategorizer.categorizeErrors(buildLogParser, alignmentLogParser));
+            }
+        }
+    }
+
+    @Test
+    void testSuccessfulBuildScansOnlyFlags() {
+        LogParser buildLogParser = BuildCategorizer.getBuildLogParser(BuildStatus.SUCCESS, 0);
+        buildLogParser.findMatches(new BufferedReader(new StringReader("[INFO] --- frontend-maven-plugin:1.12.1")));
+        assertTrue(buildLogParser.contains(BuildCategorizer.FRONTEND_MAVEN_PLUGIN));
+        assertThrows(IllegalArgumentException.class, () -> buildLogParser.contains(BuildCategorizer.NO_ROUTE_TO_HOST));
+
+        LogParser alignmentLogParser = BuildCategorizer.getAlignmentLogParser(BuildStatus.SUCCESS, 0);
+        alignmentLogParser.findMatches(new BufferedReader(new StringReader("mvn -DbrewPullActive=true")));
+        assertTrue(alignmentLogParser.contains(BuildCategorizer.DBREW_PULL_ACTIVE_TRUE));
+        assertFalse(alignmentLogParser.contains(BuildCategorizer.DMANIPULATION_DISABLE_TRUE));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.jboss.pnc.cleaner.archiver.ArchivedBuildRecord.ErrorGroup;
+import org.jboss.pnc.cleaner.archiver.BuildRecategorizationJob.Change;
+import org.jboss.pnc.cleaner.archiver.BuildRecategorizationJob.StoredBuild;
+import org.jboss.pnc.cleaner.archiver.BuildRecategorizationJob.StoredLog;
+import org.jboss.pnc.enums.BuildStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BuildRecategorizationJobTest {
+
+    private static final String AGENT_GONE = "[ERROR] Build Agent has gone away";
+
+    private static final String INDY_GONE = "[ERROR] indy.newcastle.svc.cluster.local:80 failed to respond";
+
+    @Test
+    void testChangedCategory() {
+        Change change = BuildRecategorizationJob
+                .recategorize(build("SYSTEM_ERROR", ErrorGroup.ND, "N.D.", log(AGENT_GONE)));
+
+        assertEquals(BuildStatus.SYSTEM_ERROR, change.status());
+        assertEquals(ErrorGroup.PSI, change.errorGroup());
+        assertEquals("Build Agent has gone away (Network issues)", change.errorMessage());
+    }
+
+    @Test
+    void testUnchangedCategory() {
+        StoredLog log = new StoredLog(null, LogCompression.compress(new StringReader(AGENT_GONE)));
+
+        assertNull(
+                BuildRecategorizationJob.recategorize(
+                        build("SYSTEM_ERROR", ErrorGroup.PSI, "Build Agent has gone away (Network issues)", log)));
+    }
+
+    @Test
+    void testCategoryNotReplacedByNd() {
+        StoredLog log = log("[INFO] BUILD FAILURE");
+
+        // the patterns of the category may have been in the part of the log that was trimmed
+        assertNull(
+                BuildRecategorizationJob.recategorize(
+                        build("SYSTEM_ERROR", ErrorGroup.PSI, "Build Agent has gone away (Network issues)", log)));
+        assertEquals(
+                ErrorGroup.ND,
+                BuildRecategorizationJob.recategorize(build("SYSTEM_ERROR", null, null, log)).errorGroup());
+    }
+
+    @Test
+    void testFailedBuildStaysUncategorized() {
+        assertNull(BuildRecategorizationJob.recategorize(build("FAILED", null, null, log(AGENT_GONE))));
+    }
+
+    @Test
+    void testFailedBuildBecomesSystemError() {
+        Change change = BuildRecategorizationJob
+                .recategorize(build("FAILED", null, null, log(INDY_GONE)));
+
+        assertEquals(BuildStatus.SYSTEM_ERROR, change.status());
+        assertEquals(ErrorGroup.INDY, change.errorGroup());
+        assertEquals("INDY - Failed to respond", change.errorMessage());
+    }
+
+    @Test
+    void testSystemErrorArchivedAsFailed() {
+        Change change = BuildRecategorizationJob.recategorize(
+                build("FAILED", ErrorGroup.PNC, "user did not specify", log(AGENT_GONE)));
+
+        // the build was a system error, so it is one again with the new category
+        assertEquals(BuildStatus.SYSTEM_ERROR, change.status());
+        assertEquals(ErrorGroup.PSI, change.errorGroup());
+    }
+
+    @Test
+    void testIndyWithUnknownStatus() {
+        StoredLog log = log(AGENT_GONE);
+
+        // a failed build or a system error, the status it would get isn't known
+        assertNull(BuildRecategorizationJob.recategorize(build("SYSTEM_ERROR", ErrorGroup.INDY, "INDY - old", log)));
+    }
+
+    @Test
+    void testEmptyLogHash() {
+        assertEquals(
+                "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                BuildRecategorizationJob.EMPTY_LOG_HASH);
+    }
+
+    private static StoredLog log(String content) {
+        return new StoredLog(content.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static StoredBuild build(String status, ErrorGroup errorGroup, String errorMessage, StoredLog buildLog) {
+        return new StoredBuild(
+                1,
+                OffsetDateTime.parse("2024-04-16T13:40:05Z"),
+                OffsetDateTime.parse("2024-04-16T13:40:07Z"),
+                OffsetDateTime.parse("2024-04-16T13:52:31Z"),
+                status,
+                "MVN",
+                errorGroup,
+                errorMessage,
+                "2f8b3c3e",
+                null,
+                buildLog,
+                log(""));
+    }
+}
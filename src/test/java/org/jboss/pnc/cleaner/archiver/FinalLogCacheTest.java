@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FinalLogCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testLogCachedWhenReadToEnd() throws IOException {
+        FinalLogCache cache = createCache();
+        assertNull(cache.open("A7RC57IR7KYAA", "build-log"));
+
+        download(cache, "A7RC57IR7KYAA", "build-log", "[INFO] BUILD SUCCESS");
+
+        assertEquals("[INFO] BUILD SUCCESS", read(cache, "A7RC57IR7KYAA", "build-log"));
+        assertNull(cache.open("A7RC57IR7KYAA", "alignment-log"));
+    }
+
+    @Test
+    void testLogNotCachedWhenReadPartially() throws IOException {
+        FinalLogCache cache = createCache();
+
+        try (InputStream log = cache.cache("A7RC57IR7KYAA", "build-log", stream("[INFO] BUILD SUCCESS"))) {
+            log.read(new byte[5]);
+        }
+
+        assertNull(cache.open("A7RC57IR7KYAA", "build-log"));
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testLeastRecentlyUsedLogEvicted() throws IOException {
+        FinalLogCache cache = createCache();
+        download(cache, "A", "build-log", "first log");
+        download(cache, "B", "build-log", "other log");
+        cache.maxSize = cache.size();
+        read(cache, "A", "build-log");
+
+        download(cache, "C", "build-log", "third log");
+
+        assertNotNull(read(cache, "A", "build-log"));
+        assertNull(cache.open("B", "build-log"));
+        assertNotNull(read(cache, "C", "build-log"));
+        assertEquals(cache.maxSize, cache.size());
+    }
+
+    @Test
+    void testCorruptLogEvicted() throws IOException {
+        FinalLogCache cache = createCache();
+        download(cache, "A7RC57IR7KYAA", "build-log", "[INFO] BUILD SUCCESS\n".repeat(1000));
+        Path file = directory.resolve("A7RC57IR7KYAA-build-log.log.gz");
+        byte[] compressed = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(compressed, compressed.length / 2));
+
+        try (InputStream log = cache.open("A7RC57IR7KYAA", "build-log")) {
+            assertThrows(IOException.class, log::readAllBytes);
+        }
+        cache.evict("A7RC57IR7KYAA", "build-log");
+
+        assertNull(cache.open("A7RC57IR7KYAA", "build-log"));
+        assertFalse(Files.exists(file));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testCacheReopened() throws IOException {
+        FinalLogCache cache = createCache();
+        download(cache, "A7RC57IR7KYAA", "build-log", "[INFO] BUILD SUCCESS");
+        Files.createFile(directory.resolve("A7RC57IR7KYAA-alignment-log.log.gz.123.tmp"));
+
+        FinalLogCache reopened = createCache();
+
+        assertEquals(cache.size(), reopened.size());
+        assertEquals("[INFO] BUILD SUCCESS", read(reopened, "A7RC57IR7KYAA", "build-log"));
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private FinalLogCache createCache() {
+        FinalLogCache cache = new FinalLogCache();
+        cache.enabled = true;
+        cache.directory = directory.toString();
+        cache.maxSize = Long.MAX_VALUE;
+        cache.registry = new SimpleMeterRegistry();
+        cache.init();
+        return cache;
+    }
+
+    private static void download(FinalLogCache cache, String buildId, String tag, String content) throws IOException {
+        try (InputStream log = cache.cache(buildId, tag, stream(content))) {
+            log.readAllBytes();
+        }
+    }
+
+    private static String read(FinalLogCache cache, String buildId, String tag) throws IOException {
+        try (InputStream log = cache.open(buildId, tag)) {
+            return log == null ? null : new String(log.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogCompressionTest {
+
+    @Test
+    public void testRoundTrip() {
+        for (String log : new String[] { "", "line", "příliš žluťoučký 🐴\n\nline3" }) {
+            assertEquals(log, LogCompression.decompress(LogCompression.compress(new StringReader(log))));
+        }
+    }
+
+    @Test
+    public void testCompressesBufferedLog() {
+        TrimmedLogBuffer buffer = new TrimmedLogBuffer(1_000_000);
+        AhoCorasickTest.generateLog(20_000, 11).forEach(buffer::add);
+        String log = buffer.toString();
+
+        byte[] compressed = LogCompression.compress(buffer.reader());
+
+        assertEquals(log, LogCompression.decompress(compressed));
+        int size = log.getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(compressed.length * 5 < size, "compressed " + size + " bytes to " + compressed.length);
+    }
+
+    /**
+     * Measures the savings and the cost of storing a full trimmed log compressed. The sizes depend only on the
+     * generated log, the times on the machine, so they are reported rather than asserted; run the test alone to get
+     * comparable times.
+     */
+    @Test
+    public void testSavingsAndCost(TestReporter reporter) {
+        int limit = 1024 * 1024;
+        TrimmedLogBuffer buffer = new TrimmedLogBuffer(limit);
+        // more lines than fit, the buffer keeps the last 1 MB like a trimmed log of a long build
+        AhoCorasickTest.generateLog(30_000, 5).forEach(buffer::add);
+        String log = buffer.toString();
+        int size = log.getBytes(StandardCharsets.UTF_8).length;
+
+        byte[] compressed = null;
+        long compressTime = Long.MAX_VALUE;
+        long decompressTime = Long.MAX_VALUE;
+        // best of several rounds, the first ones warm up the JIT
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            compressed = LogCompression.compress(buffer.reader());
+            compressTime = Math.min(compressTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            String decompressed = LogCompression.decompress(compressed);
+            decompressTime = Math.min(decompressTime, System.nanoTime() - start);
+            assertEquals(log, decompressed);
+        }
+
+        assertTrue(size > limit / 2, "log of " + size + " bytes");
+        assertTrue(compressed.length * 5 < size, "compressed " + size + " bytes to " + compressed.length);
+        reporter.publishEntry("logBytes", String.valueOf(size));
+        reporter.publishEntry("compressedBytes", String.valueOf(compressed.length));
+        reporter.publishEntry("savedPercent", String.valueOf(100 - compressed.length * 100L / size));
+        reporter.publishEntry("compressMicros", String.valueOf(compressTime / 1_000));
+        reporter.publishEntry("decompressMicros", String.valueOf(decompressTime / 1_000));
+    }
+}
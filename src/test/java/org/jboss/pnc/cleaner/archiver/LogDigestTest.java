@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class LogDigestTest {
+
+    @Test
+    public void testHashOfUtf8Content() throws Exception {
+        for (String log : new String[] { "", "line", "příliš žluťoučký 🐴\n\nline3" }) {
+            byte[] expected = MessageDigest.getInstance("SHA-256").digest(log.getBytes(StandardCharsets.UTF_8));
+            assertEquals(HexFormat.of().formatHex(expected), LogDigest.sha256(new StringReader(log)));
+        }
+    }
+
+    @Test
+    public void testBufferedLogHash() {
+        TrimmedLogBuffer first = new TrimmedLogBuffer(1000);
+        TrimmedLogBuffer second = new TrimmedLogBuffer(1000);
+        AhoCorasickTest.generateLog(100, 5).forEach(first::add);
+        AhoCorasickTest.generateLog(100, 5).forEach(second::add);
+        assertEquals(LogDigest.sha256(new StringReader(first.toString())), LogDigest.sha256(first.reader()));
+        assertEquals(LogDigest.sha256(first.reader()), LogDigest.sha256(second.reader()));
+        second.add("one more line");
+        assertNotEquals(LogDigest.sha256(first.reader()), LogDigest.sha256(second.reader()));
+    }
+}
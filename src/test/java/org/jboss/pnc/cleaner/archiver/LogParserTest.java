@@ -18,9 +18,24 @@
 package org.jboss.pnc.cleaner.archiver;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -76,10 +91,9 @@ class LogParserTest {
 
     @Test
     public void testLiteralFound() {
-        LogParser logParser = new LogParser(0);
         String yourError = "your error";
         String myError = "my error";
-        logParser.addLiteralLines(yourError, myError);
+        LogParser logParser = new LogParser(new LogPatternSet(List.of(yourError, myError), List.of()), 0);
         String inputText = "line1\nline2\nlong my error line\nline4";
         StringReader reader = new StringReader(inputText);
         logParser.findMatches(new BufferedReader(reader));
@@ -92,10 +106,9 @@ class LogParserTest {
 
     @Test
     public void testRegExpFound() {
-        LogParser logParser = new LogParser(0);
         String yourError = "your .* error";
         String myError = "my .* error";
-        logParser.addRegExpLines(yourError, myError);
+        LogParser logParser = new LogParser(new LogPatternSet(List.of(), List.of(yourError, myError)), 0);
         String inputText = "line1\nline2\nlong my shiny error line\nline4";
         StringReader reader = new StringReader(inputText);
         logParser.findMatches(new BufferedReader(reader));
@@ -106,4 +119,169 @@ class LogParserTest {
         assertEquals("my shiny error", logParser.get(myError));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testComplexRegExpFound() {
+        String myError = "(my|your) [a-z]+ error";
+        LogParser logParser = new LogParser(new LogPatternSet(List.of(), List.of(myError)), 0);
+        String inputText = "line1\nline2\nlong my shiny error line\nline4";
+        StringReader reader = new StringReader(inputText);
+        logParser.findMatches(new BufferedReader(reader));
+
+        assertTrue(logParser.contains(myError));
+        assertEquals("my shiny error", logParser.get(myError));
+    }
+
+    @Test
+    public void testSameResultsAsMatchingEachPattern() {
+        List<String> log = AhoCorasickTest.generateLog(20_000, 5);
+        log.add("Exception trying to GET https://paas.example.com/healthz/ready");
+        log.add("java.net.UnknownHostException: orch.example.com");
+        log.add("UnknownHostException: orch without the package");
+        LogParser logParser = BuildCategorizer.getLogParser(0);
+        logParser.findMatches(new BufferedReader(new StringReader(String.join("\n", log))));
+
+        for (String literal : BuildCategorizer.literalErrors) {
+            boolean expected = log.stream().anyMatch(line -> line.contains(literal));
+            assertEquals(expected, logParser.contains(literal), literal);
+        }
+        for (String regExp : BuildCategorizer.regExpErrors) {
+            Matcher matcher = Pattern.compile(".*(" + regExp + ").*").matcher("");
+            String expected = log.stream()
+                    .filter(line -> matcher.reset(line).matches())
+                    .map(line -> matcher.group(1))
+                    .findFirst()
+                    .orElse(null);
+            assertEquals(expected, logParser.get(regExp), regExp);
+        }
+    }
+
+    @Test
+    public void testStreamLineEndings() throws IOException {
+        LogParser logParser = new LogParser(200000);
+        String inputText = "line1\r\nline2\rline3\n\nCaught exception: line5\r\rline7\r";
+        logParser.findMatches(new ByteArrayInputStream(inputText.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Caught exception: line5\n\nline7", logParser.getTrimmedLog());
+        assertFalse(logParser.isEmpty());
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        LogParser logParser = new LogParser(20);
+        logParser.findMatches(new ByteArrayInputStream(new byte[0]));
+        assertTrue(logParser.isEmpty());
+        assertEquals("", logParser.getTrimmedLog());
+    }
+
+    @Test
+    public void testStreamSameResultsAsReader() throws IOException {
+        Random random = new Random(11);
+        List<String> log = AhoCorasickTest.generateLog(5_000, 11);
+        log.add("Exception trying to GET https://paas.example.com/healthz/ready");
+        log.add("Caught exception: Could not resolve dependencies for project příliš:žluťoučký");
+        log.add("PNC_BUILD_LOG_VERSION=2");
+        log.add("x".repeat(200_000) + " java.net.UnknownHostException: orch.example.com");
+        StringBuilder text = new StringBuilder();
+        for (String line : log) {
+            text.append(line).append(random.nextBoolean() ? "\n" : "\r\n");
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        for (long trimSize : new long[] { 0, 300, 1_000_000 }) {
+            LogParser expected = BuildCategorizer.getLogParser(trimSize);
+            expected.findMatches(new BufferedReader(new StringReader(text.toString())));
+            LogParser actual = BuildCategorizer.getLogParser(trimSize);
+            // short reads split lines and line endings at random places
+            actual.findMatches(new ByteArrayInputStream(bytes) {
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1 + random.nextInt(10_000)));
+                }
+            });
+
+            for (String literal : BuildCategorizer.literalErrors) {
+                assertEquals(expected.contains(literal), actual.contains(literal), literal);
+            }
+            for (String regExp : BuildCategorizer.regExpErrors) {
+                assertEquals(expected.get(regExp), actual.get(regExp), regExp);
+            }
+            assertEquals(expected.getTrimmedLog(), actual.getTrimmedLog());
+        }
+    }
+
+    @Test
+    public void testChunksSameResultsAsStream(@TempDir Path directory) throws IOException {
+        List<String> log = AhoCorasickTest.generateLog(3_000, 13);
+        log.add(1_000, "Exception trying to GET https://paas.example.com/healthz/ready");
+        log.add(1_500, "Caught exception: Could not resolve dependencies for project příliš:žluťoučký");
+        log.add(1_501, "Caught exception: second one");
+        log.add(2_000, "x".repeat(2_000) + " java.net.UnknownHostException: orch.example.com");
+        log.add("PNC_BUILD_LOG_VERSION=2\r");
+        String withException = String.join("\n", log) + "\r\n";
+        log.remove(1_501);
+        log.remove(1_500);
+        String withoutException = String.join("\r\n", log) + "\n\n";
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String text : List.of(withException, withoutException, "", "\n\n\n")) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                for (long trimSize : new long[] { 0, 300, 1_000_000 }) {
+                    LogParser expected = new LogParser(BuildCategorizer.logPatterns, trimSize, 3);
+                    expected.findMatches(new ByteArrayInputStream(bytes));
+                    for (long chunkSize : new long[] { 1, 1_000, 100_000, 10_000_000 }) {
+                        String message = "trim " + trimSize + ", chunk " + chunkSize;
+                        LogParser actual = new LogParser(BuildCategorizer.logPatterns, trimSize, 3);
+                        try (LogSpool spool = LogSpool.read(new ByteArrayInputStream(bytes), 0, directory, 4096)) {
+                            actual.findMatches(spool, chunkSize, pool);
+                        }
+
+                        for (String literal : BuildCategorizer.literalErrors) {
+                            assertEquals(expected.contains(literal), actual.contains(literal), message);
+                        }
+                        for (String regExp : BuildCategorizer.regExpErrors) {
+                            assertEquals(expected.get(regExp), actual.get(regExp), message);
+                        }
+                        assertEquals(expected.isEmpty(), actual.isEmpty(), message);
+                        assertEquals(expected.getTrimmedLog(), actual.getTrimmedLog(), message);
+                        assertEquals(expected.getMatchContext(), actual.getMatchContext(), message);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentParsersSharingPatterns() throws Exception {
+        List<String> log = AhoCorasickTest.generateLog(5_000, 7);
+        log.add("Request to endpoint http://repour.example.com/adjust failed: HTTP/1.0 503");
+        log.add("Failed to obtain versions");
+        String text = String.join("\n", log);
+        LogParser expected = BuildCategorizer.getLogParser(0);
+        expected.findMatches(new BufferedReader(new StringReader(text)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<LogParser>> parsers = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                parsers.add(executor.submit(() -> {
+                    LogParser parser = BuildCategorizer.getLogParser(0);
+                    parser.findMatches(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+                    return parser;
+                }));
+            }
+            for (Future<LogParser> parser : parsers) {
+                for (String regExp : BuildCategorizer.regExpErrors) {
+                    assertEquals(expected.get(regExp), parser.get().get(regExp), regExp);
+                }
+                for (String literal : BuildCategorizer.literalErrors) {
+                    assertEquals(expected.contains(literal), parser.get().contains(literal), literal);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogSpoolTest {
+
+    private static final String LOG = "[INFO] Scanning for projects...\n[ERROR] BUILD FAILURE\n";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testShortLogKeptInMemory() throws IOException {
+        try (LogSpool spool = LogSpool.read(stream(LOG), LOG.length(), directory)) {
+            assertFalse(spool.isSpooled());
+            assertEquals(LOG.length(), spool.size());
+            assertEquals(LOG, read(spool.open()));
+            assertEquals(LOG, read(spool.open()));
+            assertEquals(0, fileCount());
+        }
+    }
+
+    @Test
+    void testLongLogSpooled() throws IOException {
+        try (LogSpool spool = LogSpool.read(stream(LOG), LOG.length() - 1, directory, 7)) {
+            assertTrue(spool.isSpooled());
+            assertEquals(LOG.length(), spool.size());
+            assertEquals(1, fileCount());
+            InputStream first = spool.open();
+            InputStream second = spool.open();
+            assertEquals('[', first.read());
+            assertEquals(LOG, read(second));
+            assertEquals(LOG.substring(1), read(first));
+        }
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    void testRangesAcrossRegions() throws IOException {
+        try (LogSpool spool = LogSpool.read(stream(LOG), 0, directory, 7)) {
+            assertEquals(LOG.substring(5, 30), read(spool.open(5, 30)));
+            assertEquals(LOG.substring(7, 14), read(spool.open(7, 14)));
+            assertEquals(LOG.substring(40), read(spool.open(40, LOG.length())));
+            assertEquals("", read(spool.open(10, 10)));
+            for (int i = 0; i < LOG.length(); i++) {
+                assertEquals(LOG.charAt(i), spool.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testEmptyLog() throws IOException {
+        try (LogSpool spool = LogSpool.read(stream(""), 0, directory)) {
+            assertFalse(spool.isSpooled());
+            assertEquals(-1, spool.open().read());
+        }
+    }
+
+    @Test
+    void testParsedFromSpool() throws IOException {
+        try (LogSpool spool = LogSpool.read(stream(LOG), 10, directory)) {
+            LogParser parser = new LogParser(new LogPatternSet(List.of("BUILD FAILURE"), List.of()), 0);
+            parser.findMatches(spool.open());
+            assertTrue(parser.contains("BUILD FAILURE"));
+        }
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static String read(InputStream input) throws IOException {
+        return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
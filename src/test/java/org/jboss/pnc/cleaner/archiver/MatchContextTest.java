@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MatchContextTest {
+
+    private static final String LOG = """
+            line 1
+            line 2
+            line 3
+            Build Agent has gone away
+            line 5
+            line 6
+            line 7
+            No route to host
+            line 9
+            """;
+
+    @Test
+    void testLinesAroundFirstMatches() throws IOException {
+        LogParser parser = parser(2);
+        parser.findMatches(new ByteArrayInputStream(LOG.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("""
+                --- Build Agent has gone away (line 4)
+                  2: line 2
+                  3: line 3
+                > 4: Build Agent has gone away
+                  5: line 5
+                  6: line 6
+                --- No route to host (line 8)
+                  6: line 6
+                  7: line 7
+                > 8: No route to host
+                  9: line 9
+                """, parser.getMatchContext());
+    }
+
+    @Test
+    void testSameContextFromReader() throws IOException {
+        LogParser bytes = parser(3);
+        bytes.findMatches(new ByteArrayInputStream(LOG.getBytes(StandardCharsets.UTF_8)));
+        LogParser lines = parser(3);
+        lines.findMatches(new BufferedReader(new StringReader(LOG)));
+
+        assertEquals(bytes.getMatchContext(), lines.getMatchContext());
+    }
+
+    @Test
+    void testMatchOnFirstLine() {
+        MatchContext context = new MatchContext(2);
+        context.matched("first");
+        line(context, "first line");
+        line(context, "second line");
+
+        assertEquals("""
+                --- first (line 1)
+                > 1: first line
+                  2: second line
+                """, context.toString());
+    }
+
+    @Test
+    void testLongLineCut() {
+        MatchContext context = new MatchContext(1);
+        line(context, "x".repeat(MatchContext.MAX_LINE_LENGTH * 2));
+        context.matched("match");
+        line(context, "match");
+
+        assertTrue(context.toString().contains("  1: " + "x".repeat(MatchContext.MAX_LINE_LENGTH) + "\n"));
+    }
+
+    @Test
+    void testNoContextKept() {
+        LogParser parser = parser(0);
+        parser.findMatches(new BufferedReader(new StringReader(LOG)));
+
+        assertTrue(parser.contains("No route to host"));
+        assertEquals("", parser.getMatchContext());
+    }
+
+    private static LogParser parser(int contextLines) {
+        return new LogParser(
+                new LogPatternSet(List.of("Build Agent has gone away", "No route to host"), List.of()),
+                0,
+                contextLines);
+    }
+
+    private static void line(MatchContext context, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        context.line(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegExpAutomatonTest {
+
+    @Test
+    void testSupportedSyntax() {
+        assertTrue(RegExpAutomaton.isSupported("Exception trying to GET https://paas.*/healthz/ready"));
+        assertTrue(RegExpAutomaton.isSupported("User \".*\" cannot create"));
+        assertTrue(RegExpAutomaton.isSupported("a\\.b*c"));
+        assertFalse(RegExpAutomaton.isSupported("(a|b)"));
+        assertFalse(RegExpAutomaton.isSupported("a+"));
+        assertFalse(RegExpAutomaton.isSupported("[0-9]*"));
+        assertFalse(RegExpAutomaton.isSupported("\\d"));
+        assertFalse(RegExpAutomaton.isSupported("*a"));
+    }
+
+    @Test
+    void testRequiredLiteral() {
+        assertEquals(
+                "Exception trying to GET https://paas",
+                RegExpAutomaton.requiredLiteral(BuildCategorizer.EXCEPTION_TRYING_TO_GET_HTTPS_PAAS_HEALTHZ_READY));
+        assertEquals(
+                "UnknownHostException: orch",
+                RegExpAutomaton.requiredLiteral(BuildCategorizer.JAVA_NET_UNKNOWN_HOST_EXCEPTION_ORCH));
+        assertEquals("\" cannot create", RegExpAutomaton.requiredLiteral(BuildCategorizer.USER_CANNOT_CREATE));
+        assertEquals("bd", RegExpAutomaton.requiredLiteral("a*bdx*"));
+        assertEquals("", RegExpAutomaton.requiredLiteral("a*.b*"));
+    }
+
+    @Test
+    void testCapture() {
+        RegExpAutomaton automaton = new RegExpAutomaton(List.of("my .* error", "your .* error"));
+        boolean[] found = new boolean[automaton.getPatternCount()];
+        String line = "long my shiny error and my dull error line";
+
+        assertEquals(1, automaton.scan(line, found));
+        assertArrayEquals(new boolean[] { true, false }, found);
+        assertEquals("my dull error", automaton.capture(0, line));
+    }
+
+    @Test
+    void testSameResultsAsPattern() {
+        List<String> regexes = Arrays.asList(BuildCategorizer.regExpErrors);
+        RegExpAutomaton automaton = new RegExpAutomaton(regexes);
+        List<String> lines = AhoCorasickTest.generateLog(5_000, 11);
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            lines.add(instantiate(regexes.get(random.nextInt(regexes.size())), random));
+        }
+        lines.add("Exception trying to GET https://paas.example.com/healthz/ready ");
+
+        assertSameResults(regexes, automaton, lines);
+    }
+
+    @Test
+    void testSameResultsAsPatternOnRandomInput() {
+        Random random = new Random(3);
+        for (int round = 0; round < 300; round++) {
+            List<String> regexes = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                regexes.add(randomString(random, "ab.*", 1 + random.nextInt(6)).replaceAll("^\\*+|(\\*)\\*+", "$1"));
+            }
+            RegExpAutomaton automaton = new RegExpAutomaton(regexes);
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                lines.add(randomString(random, "abc", random.nextInt(12)));
+            }
+            assertSameResults(regexes, automaton, lines);
+        }
+    }
+
+    @Test
+    void testNoBacktrackingOnLongLines() {
+        RegExpAutomaton automaton = new RegExpAutomaton(List.of("a.*b.*c.*d.*e", "x.*x.*x.*y"));
+        String line = "abcd".repeat(250_000) + "x".repeat(250_000);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            boolean[] found = new boolean[automaton.getPatternCount()];
+            assertEquals(0, automaton.scan(line, found));
+            assertEquals(1, automaton.scan(line + "e", found));
+            assertEquals(line.substring(line.lastIndexOf('a')) + "e", automaton.capture(0, line + "e"));
+        });
+    }
+
+    private static void assertSameResults(List<String> regexes, RegExpAutomaton automaton, List<String> lines) {
+        List<Matcher> matchers = regexes.stream().map(r -> Pattern.compile(".*(" + r + ").*").matcher("")).toList();
+        for (String line : lines) {
+            boolean[] found = new boolean[regexes.size()];
+            automaton.scan(line, found);
+            for (int i = 0; i < regexes.size(); i++) {
+                Matcher matcher = matchers.get(i).reset(line);
+                String message = "Pattern " + regexes.get(i) + ", line: " + line;
+                assertEquals(matcher.matches(), found[i], message);
+                if (found[i]) {
+                    assertEquals(matcher.group(1), automaton.capture(i, line), message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a line matching the expression, filling the wildcards with random text.
+     */
+    private static String instantiate(String regex, Random random) {
+        StringBuilder line = new StringBuilder(randomString(random, "ab /:.", random.nextInt(10)));
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '.' && i + 1 < regex.length() && regex.charAt(i + 1) == '*') {
+                line.append(randomString(random, "x.-/:\"", random.nextInt(20)));
+                i++;
+            } else if (c == '.') {
+                line.append(randomString(random, "xyz.", 1));
+            } else {
+                line.append(c);
+            }
+        }
+        return line.append(randomString(random, "ab /:.", random.nextInt(10))).toString();
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
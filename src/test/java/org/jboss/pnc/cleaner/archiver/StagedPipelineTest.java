@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StagedPipelineTest {
+
+    @Test
+    public void testAllItemsPassAllStages() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Set<Integer> done = ConcurrentHashMap.newKeySet();
+            AtomicInteger inFirstStage = new AtomicInteger();
+            AtomicInteger maxInFirstStage = new AtomicInteger();
+            List<Integer> items = IntStream.range(0, 500).boxed().collect(Collectors.toList());
+
+            new StagedPipeline<Integer>(executor, 2, registry, "test", String::valueOf)
+                    .stage("first", 3, item -> {
+                        maxInFirstStage.accumulateAndGet(inFirstStage.incrementAndGet(), Math::max);
+                        if (item % 100 == 7) {
+                            inFirstStage.decrementAndGet();
+                            throw new IllegalStateException("failing " + item);
+                        }
+                        inFirstStage.decrementAndGet();
+                    })
+                    .stage("second", 2, item -> {
+                    })
+                    .stage("third", 1, done::add)
+                    .run(items);
+
+            assertEquals(495, done.size());
+            assertTrue(done.stream().noneMatch(item -> item % 100 == 7));
+            assertTrue(maxInFirstStage.get() <= 3);
+            assertEquals(500, registry.timer("test.first").count());
+            assertEquals(5, registry.counter("test.first.error.count").count());
+            assertEquals(495, registry.timer("test.second").count());
+            assertEquals(495, registry.timer("test.third").count());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrorsDoNotStopPipeline() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Set<Integer> done = ConcurrentHashMap.newKeySet();
+            List<Integer> items = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+            // the description of the failed item fails as well
+            StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(executor, 2, registry, "test", item -> {
+                if (item == 42) {
+                    throw new IllegalStateException("no description");
+                }
+                return String.valueOf(item);
+            }).stage("first", 1, item -> {
+                if (item == 42) {
+                    throw new IllegalStateException("failing " + item);
+                }
+            }).stage("second", 2, done::add);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> pipeline.run(items));
+
+            assertEquals(99, done.size());
+            assertEquals(1, registry.counter("test.first.error.count").count());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testErrorStopsPipeline() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Error error = new Error("failing");
+            List<Integer> items = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+            StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(
+                    executor,
+                    2,
+                    registry,
+                    "test",
+                    String::valueOf).stage("first", 1, item -> {
+                        if (item == 42) {
+                            throw error;
+                        }
+                    }).stage("second", 1, item -> {
+                    });
+
+            // the items after the error are drained, so feeding doesn't block on the full queues
+            Error thrown = assertTimeoutPreemptively(
+                    Duration.ofSeconds(30),
+                    () -> assertThrows(Error.class, () -> pipeline.run(items)));
+
+            assertSame(error, thrown);
+            assertEquals(1, registry.counter("test.first.error.count").count());
+            assertTrue(registry.timer("test.second").count() < 1000);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFeedingFailureWaitsForFedItems() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Set<Integer> done = ConcurrentHashMap.newKeySet();
+            Iterable<Integer> items = () -> IntStream.range(0, 100).boxed().peek(item -> {
+                if (item == 50) {
+                    throw new IllegalStateException("failing to read");
+                }
+            }).iterator();
+            StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>(
+                    executor,
+                    2,
+                    registry,
+                    "test",
+                    String::valueOf).stage("slow", 1, item -> {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }).stage("last", 1, done::add);
+
+            IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> pipeline.run(items));
+
+            assertEquals("failing to read", thrown.getMessage());
+            // the items read before the failure are done when it is thrown
+            assertEquals(50, done.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowStageHoldsBackFeeding() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            AtomicInteger fed = new AtomicInteger();
+            AtomicInteger processed = new AtomicInteger();
+            AtomicInteger maxAhead = new AtomicInteger();
+            Iterable<Integer> items = () -> IntStream.range(0, 200).boxed().peek(i -> {
+                fed.incrementAndGet();
+                maxAhead.accumulateAndGet(fed.get() - processed.get(), Math::max);
+            }).iterator();
+
+            new StagedPipeline<Integer>(executor, 4, registry, "test", String::valueOf)
+                    .stage("fast", 1, item -> {
+                    })
+                    .stage("slow", 1, item -> {
+                        try {
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        processed.incrementAndGet();
+                    })
+                    .run(items);
+
+            assertEquals(200, processed.get());
+            // two queues, one item in each worker and one being fed
+            assertTrue(maxAhead.get() <= 4 + 4 + 2 + 1, "fed ahead " + maxAhead.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchStage() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Set<Integer> done = ConcurrentHashMap.newKeySet();
+            List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+            List<Integer> failedBatchSizes = new CopyOnWriteArrayList<>();
+            List<Integer> items = IntStream.range(0, 300).boxed().collect(Collectors.toList());
+
+            new StagedPipeline<Integer>(executor, 20, registry, "test", String::valueOf)
+                    .stage("first", 2, item -> {
+                    })
+                    .batchStage("batch", 2, 10, batch -> {
+                        batchSizes.add(batch.size());
+                        try {
+                            Thread.sleep(2);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if (batch.contains(150)) {
+                            failedBatchSizes.add(batch.size());
+                            throw new IllegalStateException("failing batch");
+                        }
+                    })
+                    .stage("last", 1, done::add)
+                    .run(items);
+
+            assertTrue(batchSizes.stream().allMatch(size -> size >= 1 && size <= 10), "batches " + batchSizes);
+            assertTrue(batchSizes.stream().anyMatch(size -> size > 1), "no batch built up " + batchSizes);
+            // the items of the failed batch are retried one by one, only the failing one is dropped
+            int retried = failedBatchSizes.get(0) > 1 ? failedBatchSizes.get(0) : 0;
+            assertEquals(300 + retried, batchSizes.stream().mapToInt(Integer::intValue).sum());
+            assertEquals(299, done.size());
+            assertFalse(done.contains(150));
+            assertEquals(batchSizes.size(), registry.timer("test.batch").count());
+            assertEquals(1, registry.counter("test.batch.error.count").count());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.jboss.pnc.cleaner.orchApi.PageSizeTuner;
+import org.jboss.pnc.cleaner.orchApi.PrefetchingPageIterator;
+import org.jboss.pnc.dto.Build;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SubmitTimePageLoaderTest {
+
+    @Test
+    public void testBuildsSubmittedAtSameTimeNotSkipped() {
+        Instant time = Instant.parse("2024-04-16T13:40:05Z");
+        List<Build> builds = new ArrayList<>();
+        int[] sameTime = { 1, 3, 1, 7, 2, 1 };
+        for (int t = 0; t < sameTime.length; t++) {
+            for (int i = 0; i < sameTime[t]; i++) {
+                builds.add(Build.builder().id(t + "-" + i).submitTime(time.plusSeconds(t)).build());
+            }
+        }
+
+        Iterator<Build> iterator = new PrefetchingPageIterator<>(
+                new SubmitTimePageLoader(
+                        (from, pageSize) -> builds.stream()
+                                .filter(build -> from == null || !build.getSubmitTime().isBefore(from))
+                                .limit(pageSize)
+                                .toList()),
+                Runnable::run,
+                new PageSizeTuner(3, 3, 3, Duration.ofMinutes(1)));
+        List<Build> loaded = new ArrayList<>();
+        iterator.forEachRemaining(loaded::add);
+
+        assertEquals(builds, loaded);
+    }
+}
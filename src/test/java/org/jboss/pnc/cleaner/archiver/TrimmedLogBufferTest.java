@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.archiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TrimmedLogBufferTest {
+
+    @Test
+    public void testKeepsLastLines() {
+        TrimmedLogBuffer buffer = new TrimmedLogBuffer(10);
+        buffer.add("1234");
+        buffer.add("");
+        buffer.add("5678");
+        assertEquals("1234\n\n5678", buffer.toString());
+        buffer.add("90");
+        assertEquals("1234\n\n5678\n90", buffer.toString());
+        buffer.add("a");
+        assertEquals("\n5678\n90\na", buffer.toString());
+        buffer.add("too long line");
+        assertEquals("", buffer.toString());
+    }
+
+    @Test
+    public void testDecodesBytes() {
+        TrimmedLogBuffer buffer = new TrimmedLogBuffer(100);
+        byte[] bytes = "příliš žluťoučký 🐴".getBytes(StandardCharsets.UTF_8);
+        buffer.add(bytes, 0, bytes.length);
+        byte[] malformed = { 'a', (byte) 0xC3, 'b', (byte) 0xFF };
+        buffer.add(malformed, 0, malformed.length);
+        assertEquals("příliš žluťoučký 🐴\n" + new String(malformed, StandardCharsets.UTF_8), buffer.toString());
+    }
+
+    @Test
+    public void testSameResultAsList() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            int limit = 1 + random.nextInt(200);
+            TrimmedLogBuffer buffer = new TrimmedLogBuffer(limit);
+            LinkedList<String> expected = new LinkedList<>();
+            long expectedSize = 0;
+            for (int i = 0; i < 300; i++) {
+                String line = "ž".repeat(random.nextInt(3)) + "x".repeat(random.nextInt(random.nextInt(60) + 1));
+                if (random.nextInt(100) == 0) {
+                    buffer.clear();
+                    expected.clear();
+                    expectedSize = 0;
+                }
+                if (random.nextBoolean()) {
+                    buffer.add(line);
+                } else {
+                    byte[] bytes = ("#" + line).getBytes(StandardCharsets.UTF_8);
+                    buffer.add(bytes, 1, bytes.length - 1);
+                }
+                expected.add(line);
+                expectedSize += line.length();
+                while (expectedSize > limit) {
+                    expectedSize -= expected.poll().length();
+                }
+                assertEquals(String.join("\n", expected), buffer.toString());
+            }
+            assertEquals(buffer.toString(), read(buffer, 1 + random.nextInt(50)));
+            assertEquals(buffer.toString().length(), buffer.length());
+        }
+    }
+
+    @Test
+    public void testReadsKeptLines() throws IOException {
+        TrimmedLogBuffer buffer = new TrimmedLogBuffer(10);
+        assertEquals("", read(buffer, 4));
+        assertEquals(0, buffer.length());
+        buffer.add("");
+        buffer.add("");
+        assertEquals("\n", read(buffer, 1));
+        buffer.add("1234567");
+        buffer.add("89");
+        buffer.add("abc");
+        assertEquals("89\nabc", read(buffer, 1));
+        assertEquals("89\nabc", read(buffer, 100));
+        assertEquals(6, buffer.length());
+        try (Reader reader = buffer.reader()) {
+            assertEquals(0, reader.read(new char[4], 0, 0));
+        }
+    }
+
+    private static String read(TrimmedLogBuffer buffer, int chunk) {
+        StringBuilder result = new StringBuilder();
+        char[] chars = new char[chunk];
+        try (Reader reader = buffer.reader()) {
+            int read;
+            while ((read = reader.read(chars, 0, chunk)) >= 0) {
+                result.append(chars, 0, read);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return result.toString();
+    }
+}
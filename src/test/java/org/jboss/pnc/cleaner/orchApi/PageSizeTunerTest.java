@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.orchApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PageSizeTunerTest {
+
+    private static final Duration TARGET = Duration.ofSeconds(2);
+
+    @Test
+    public void testSlowPageHalvesPageSize() {
+        PageSizeTuner tuner = new PageSizeTuner(100, 10, 500, TARGET);
+        tuner.record(100, 100, Duration.ofSeconds(3));
+        assertEquals(50, tuner.getPageSize());
+        tuner.record(50, 50, Duration.ofSeconds(3));
+        tuner.record(25, 25, Duration.ofSeconds(3));
+        tuner.record(12, 12, Duration.ofSeconds(3));
+        assertEquals(10, tuner.getPageSize());
+    }
+
+    @Test
+    public void testFastFullPageDoublesPageSize() {
+        PageSizeTuner tuner = new PageSizeTuner(100, 10, 500, TARGET);
+        tuner.record(100, 100, Duration.ofMillis(500));
+        assertEquals(200, tuner.getPageSize());
+        tuner.record(200, 200, Duration.ofMillis(500));
+        tuner.record(400, 400, Duration.ofMillis(500));
+        assertEquals(500, tuner.getPageSize());
+    }
+
+    @Test
+    public void testPageSizeKeptWithinTarget() {
+        PageSizeTuner tuner = new PageSizeTuner(100, 10, 500, TARGET);
+        tuner.record(100, 100, Duration.ofMillis(1500));
+        assertEquals(100, tuner.getPageSize());
+        // a short page says nothing about the latency of a full one
+        tuner.record(100, 20, Duration.ofMillis(100));
+        assertEquals(100, tuner.getPageSize());
+    }
+
+    @Test
+    public void testInitialPageSizeIsLimited() {
+        assertEquals(500, new PageSizeTuner(1000, 10, 500, TARGET).getPageSize());
+        assertEquals(10, new PageSizeTuner(1, 10, 500, TARGET).getPageSize());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2019-2022 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.pnc.cleaner.orchApi;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefetchingPageIteratorTest {
+
+    private static final Duration TARGET = Duration.ofMinutes(1);
+
+    /** Loads pages of the numbers up to the total, the next page starts after the last number of the previous one. */
+    private static PrefetchingPageIterator.PageLoader<Integer> numbers(int total, List<Integer> requestedSizes) {
+        return (previous, size) -> {
+            synchronized (requestedSizes) {
+                requestedSizes.add(size);
+            }
+            int from = previous == null ? 0 : previous.get(previous.size() - 1) + 1;
+            return IntStream.range(from, Math.min(total, from + size)).boxed().collect(Collectors.toList());
+        };
+    }
+
+    @Test
+    public void testAllItemsInOrder() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int total : new int[] { 0, 1, 9, 10, 11, 100 }) {
+                List<Integer> sizes = new ArrayList<>();
+                PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>(
+                        numbers(total, sizes),
+                        executor,
+                        new PageSizeTuner(10, 10, 10, TARGET));
+                List<Integer> items = new ArrayList<>();
+                iterator.forEachRemaining(items::add);
+                assertEquals(IntStream.range(0, total).boxed().collect(Collectors.toList()), items);
+                // a full last page needs one more request to find out there is nothing left
+                assertEquals(total / 10 + 1, sizes.size(), "pages requested for " + total);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNextPageLoadedWhileCurrentIsConsumed() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch secondPageLoaded = new CountDownLatch(1);
+        PrefetchingPageIterator.PageLoader<Integer> loader = numbers(30, new ArrayList<>());
+        try {
+            PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>((previous, size) -> {
+                List<Integer> page = loader.load(previous, size);
+                if (previous != null) {
+                    secondPageLoaded.countDown();
+                }
+                return page;
+            }, executor, new PageSizeTuner(10, 10, 10, TARGET));
+            assertEquals(0, iterator.next());
+            assertTrue(secondPageLoaded.await(10, TimeUnit.SECONDS), "Second page was not prefetched");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPageSizeTuned() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Integer> sizes = new ArrayList<>();
+            PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>(
+                    numbers(1000, sizes),
+                    executor,
+                    new PageSizeTuner(10, 10, 80, TARGET));
+            iterator.forEachRemaining(item -> {});
+            synchronized (sizes) {
+                assertEquals(List.of(10, 20, 40, 80), sizes.subList(0, 4));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadFailurePropagated() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            PrefetchingPageIterator<Integer> iterator = new PrefetchingPageIterator<>((previous, size) -> {
+                if (previous != null) {
+                    throw new IllegalStateException("Remote failure");
+                }
+                return List.of(1, 2);
+            }, executor, new PageSizeTuner(2, 2, 2, TARGET));
+            assertEquals(1, iterator.next());
+            assertEquals(2, iterator.next());
+            assertThrows(IllegalStateException.class, iterator::hasNext);
+            assertFalse(iterator.hasNext());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}